@@ -0,0 +1,48 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import org.bukkit.Material;
+
+/**
+ * Read and write access to the blocks of a world, as needed by the smoke
+ * engines. Allows the engines to run on a world which only exists in memory
+ * as well as on a Bukkit world.
+ *
+ * @author Pepijn Schmitz
+ */
+interface BlockAccess {
+	Material getType(int x, int y, int z);
+
+	/**
+	 * Set the type of a block, without applying physics.
+	 */
+	void setType(int x, int y, int z, Material type);
+
+	int getMaxHeight();
+
+	/**
+	 * Determine for each column of a loaded chunk the height from which it
+	 * contains only air.
+	 *
+	 * @param chunkX The X coordinate of the chunk.
+	 * @param chunkZ The Z coordinate of the chunk.
+	 * @param heights The array in which to store the heights, indexed by
+	 *     <code>(z &amp; 0xf) &lt;&lt; 4 | (x &amp; 0xf)</code>.
+	 */
+	void getClearHeights(int chunkX, int chunkZ, int[] heights);
+}
@@ -34,6 +34,8 @@ public class BlockySmokeCommandExecutor implements CommandExecutor {
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
         if (command.getName().equalsIgnoreCase("createsmoker")) {
             return plugin.createSmokingBlock(sender, args);
+        } else if (command.getName().equalsIgnoreCase("smokerset")) {
+            return plugin.setSmoker(sender, args);
         } else if (command.getName().equalsIgnoreCase("removesmoker")) {
             return plugin.removeSmoker(sender);
         } else if (command.getName().equalsIgnoreCase("removeallsmokers")) {
@@ -44,6 +46,18 @@ public class BlockySmokeCommandExecutor implements CommandExecutor {
             return plugin.continueSmokers(sender);
         } else if (command.getName().equalsIgnoreCase("inspectsmoker")) {
             return plugin.inspectSmoker(sender);
+        } else if (command.getName().equalsIgnoreCase("smokeexport")) {
+            return plugin.exportSmokers(sender, args);
+        } else if (command.getName().equalsIgnoreCase("smokeimport")) {
+            return plugin.importSmokers(sender, args);
+        } else if (command.getName().equalsIgnoreCase("reloadsmokerprofiles")) {
+            return plugin.reloadProfiles(sender);
+        } else if (command.getName().equalsIgnoreCase("smokememory")) {
+            return plugin.showMemory(sender, args);
+        } else if (command.getName().equalsIgnoreCase("smokebench")) {
+            return plugin.benchmark(sender, args);
+        } else if (command.getName().equalsIgnoreCase("smokecompare")) {
+            return plugin.compareEngines(sender, args);
         }
         return false;
     }
@@ -0,0 +1,92 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The {@link BlockySmokeMemoryMXBean} registered by the BlockySmoke plugin.
+ * JMX invokes it on its own threads, so the totals are read from the
+ * estimate which the plugin publishes once a second, and only the largest
+ * smokers, for which the smokers must be visited, are looked up on the main
+ * server thread and waited for.
+ *
+ * @author Pepijn Schmitz
+ */
+final class BlockySmokeMemory implements BlockySmokeMemoryMXBean {
+	BlockySmokeMemory(BlockySmokePlugin plugin) {
+		this.plugin = plugin;
+	}
+
+	@Override
+	public long getEstimatedBytes() {
+		return plugin.getMemoryTotals().getTotalBytes();
+	}
+
+	@Override
+	public Map<String, Long> getEstimatedBytesByWorld() {
+		final MemoryReport report = plugin.getMemoryTotals();
+		final Map<String, Long> bytesByWorld = new LinkedHashMap<>();
+		for (final String worldName: report.getWorldNames())
+			bytesByWorld.put(worldName, report.getBytes(worldName));
+		return bytesByWorld;
+	}
+
+	@Override
+	public Map<String, Long> getEstimatedBytesByStructure() {
+		final MemoryReport report = plugin.getMemoryTotals();
+		final Map<String, Long> bytesByStructure = new LinkedHashMap<>();
+		for (final MemoryReport.Structure structure: MemoryReport.Structure.values())
+			bytesByStructure.put(structure.description, report.getBytes(structure));
+		return bytesByStructure;
+	}
+
+	@Override
+	public String[] getTopSmokers() {
+		final List<MemoryReport.SmokerFootprint> topSmokers = createReport().getTopSmokers();
+		final String[] descriptions = new String[topSmokers.size()];
+		for (int i = 0; i < descriptions.length; i++) {
+			final MemoryReport.SmokerFootprint footprint = topSmokers.get(i);
+			descriptions[i] = footprint.worldName + " @ " + footprint.location + ": " + footprint.bytes + " bytes (" + footprint.particleCount + " particles)";
+		}
+		return descriptions;
+	}
+
+	private MemoryReport createReport() {
+		if (plugin.getServer().isPrimaryThread())
+			return plugin.createMemoryReport(TOP_SMOKER_COUNT);
+		try {
+			return plugin.getServer().getScheduler().callSyncMethod(plugin, () -> plugin.createMemoryReport(TOP_SMOKER_COUNT)).get(TIMEOUT, TimeUnit.SECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the main server thread", e);
+		} catch (final ExecutionException e) {
+			throw new IllegalStateException("Could not estimate memory use (" + e.getCause() + ")", e.getCause());
+		} catch (final TimeoutException e) {
+			throw new IllegalStateException("Timed out waiting for the main server thread", e);
+		}
+	}
+
+	private final BlockySmokePlugin plugin;
+
+	private static final int TOP_SMOKER_COUNT = 10, TIMEOUT = 5;
+}
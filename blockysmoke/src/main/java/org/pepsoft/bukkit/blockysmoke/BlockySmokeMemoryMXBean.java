@@ -0,0 +1,62 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import java.util.Map;
+
+/**
+ * The management interface through which the estimated memory use of the
+ * BlockySmoke plugin is exposed over JMX, under the name
+ * <code>org.pepsoft.bukkit.blockysmoke:type=Memory</code>. See
+ * <code>/smokememory</code> for the same information in game.
+ *
+ * @author Pepijn Schmitz
+ */
+public interface BlockySmokeMemoryMXBean {
+	/**
+	 * Get the estimated number of bytes retained by all blocky smokers.
+	 *
+	 * @return The estimated number of bytes retained by all blocky smokers.
+	 */
+	long getEstimatedBytes();
+
+	/**
+	 * Get the estimated number of bytes retained by the blocky smokers of
+	 * each world.
+	 *
+	 * @return The estimated number of bytes retained, by world name.
+	 */
+	Map<String, Long> getEstimatedBytesByWorld();
+
+	/**
+	 * Get the estimated number of bytes retained by each structure of the
+	 * plugin (the smoker registry, the particles, the occupancy entries, the
+	 * chunk index and the snapshots), across all worlds. Like the other
+	 * totals it may be up to a second old.
+	 *
+	 * @return The estimated number of bytes retained, by structure.
+	 */
+	Map<String, Long> getEstimatedBytesByStructure();
+
+	/**
+	 * Get a description of the blocky smokers which retain the most memory,
+	 * largest first.
+	 *
+	 * @return A description of the largest blocky smokers.
+	 */
+	String[] getTopSmokers();
+}
@@ -22,10 +22,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
@@ -34,24 +38,46 @@ import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.bukkit.ChatColor;
 import org.bukkit.Chunk;
 import org.bukkit.Material;
 import org.bukkit.Server;
 import org.bukkit.World;
 import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
 import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFormEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockGrowEvent;
+import org.bukkit.event.block.BlockPhysicsEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.BlockRedstoneEvent;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
 import org.bukkit.event.world.ChunkLoadEvent;
 import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.StructureGrowEvent;
 import org.bukkit.event.world.WorldLoadEvent;
 import org.bukkit.event.world.WorldSaveEvent;
 import org.bukkit.event.world.WorldUnloadEvent;
 import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
 
 /**
@@ -63,24 +89,81 @@ public final class BlockySmokePlugin extends JavaPlugin implements Listener {
 
 	private final Map<String, Map<IntLocation, SmokingBlock>> allBlocks = new HashMap<>();
 	private final Map<String, Map<IntLocation, SmokingBlock>> activeBlocks = new HashMap<>();
+	private final Map<String, Map<Long, Set<IntLocation>>> smokersByChunk = new HashMap<>();
+	private final Map<String, SmokeWorld> smokeWorlds = new HashMap<>();
+	private final Map<String, Set<IntLocation>> pendingSourceChecks = new HashMap<>();
+	private final Map<String, Set<IntLocation>> pendingGateChecks = new HashMap<>();
+	private final Map<String, SmokerProfile> profiles = new HashMap<>();
+	/**
+	 * The worlds of which the saved smokers are being loaded in the
+	 * background, with a token identifying the load.
+	 */
+	private final Map<String, Object> loadingWorlds = new HashMap<>();
 	private final BlockySmokeCommandExecutor commandExecutor = new BlockySmokeCommandExecutor(this);
+	private final BlockySmokeService service = new BlockySmokeServiceImpl(this);
+	private final SmokeTeardown teardown = new SmokeTeardown(this);
+	private final SmokePrewarm prewarm = new SmokePrewarm(this);
+	private ObjectName memoryBeanName;
 	private Material smokeType;
-	private int densityMin, densityMax, maxDistance, minWindStrength, maxWindStrength, delay;
+	private int densityMin, densityMax, maxDistance, minWindStrength, maxWindStrength, delay, sourceCheckInterval, prewarmTicks;
+	private boolean protectSmoke;
+	private long runCount;
 	private float decayChance;
-	private final Random random = new Random();
 	private boolean randomSpread;
 	private boolean paused;
+	private SmokerImport currentImport;
+	private SmokerBenchmark currentBenchmark;
 	private WindDirection windFrom, windTo;
-
-	static WindDirection windDirection = WindDirection.N;
-	static int windStrength = 1;
+	private SmokerProfile defaultProfile;
+	private volatile SmokeSnapshot snapshot = SmokeSnapshot.EMPTY;
+	/**
+	 * The most recent estimate of the memory use, without the largest
+	 * smokers, for the memory MBean.
+	 */
+	private volatile MemoryReport memoryTotals;
+	/**
+	 * The names of the worlds of which smokers were added, removed,
+	 * activated or deactivated since the last snapshot was published, so
+	 * that their part of the snapshot must be recreated. Changes to the
+	 * state of individual smokers are tracked by
+	 * {@link SmokeWorld#snapshotStale}.
+	 */
+	private final Set<String> staleSnapshotWorlds = new HashSet<>();
 
 	static final Logger logger = Logger.getLogger("Minecraft.org.pepsoft.bukkit.blockysmoke");
 
+	/**
+	 * The number of ticks between writes of the smoke ledgers.
+	 */
+	private static final int LEDGER_FLUSH_INTERVAL = 20;
+	/**
+	 * The folder in the plugin data folder for <code>/smokeexport</code> and
+	 * <code>/smokeimport</code>.
+	 */
+	private static final String EXPORTS_DIR = "exports";
+	/**
+	 * The arguments of <code>/createsmoker</code> which are not settings.
+	 */
+	private static final Set<String> CREATE_ARGS = new HashSet<>(Arrays.asList("profile", "emitter"));
+
+	private static final BlockFace[] NEIGHBOURS = {BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST, BlockFace.UP, BlockFace.DOWN};
+
 	@Override
 	public void onDisable() {
+		if (currentBenchmark != null)
+			currentBenchmark.abort();
+		getServer().getServicesManager().unregisterAll(this);
+		if (memoryBeanName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(memoryBeanName);
+			} catch (final JMException e) {
+				logger.log(Level.WARNING, "[BlockySmoke] Could not unregister memory MBean", e);
+			}
+			memoryBeanName = null;
+		}
 		for (final World world: getServer().getWorlds())
 			deactivateWorld(world);
+		SmokeEvents.disable();
 	}
 
 	@Override
@@ -93,6 +176,28 @@ public final class BlockySmokePlugin extends JavaPlugin implements Listener {
 		delay = config.getInt("delay");
 		if (delay < 1)
 			throw new IllegalArgumentException("delay < 1");
+		sourceCheckInterval = config.getInt("sourceCheckInterval", 100);
+		if (sourceCheckInterval < 1)
+			throw new IllegalArgumentException("sourceCheckInterval < 1");
+		final int teardownBudget = config.getInt("teardownBudget", 2000);
+		if (teardownBudget < 1)
+			throw new IllegalArgumentException("teardownBudget < 1");
+		teardown.setBudget(teardownBudget);
+		prewarmTicks = config.getInt("prewarmTicks", 40);
+		if (prewarmTicks < 0)
+			throw new IllegalArgumentException("prewarmTicks < 0");
+		prewarm.setMaxTicks(prewarmTicks);
+		final int prewarmBudget = config.getInt("prewarmBudget", 200);
+		if (prewarmBudget < 1)
+			throw new IllegalArgumentException("prewarmBudget < 1");
+		prewarm.setBudget(prewarmBudget);
+		protectSmoke = config.getBoolean("protectSmoke", false);
+		if (config.getBoolean("flightRecorderEvents", false)) {
+			if (SmokeEvents.enable())
+				logger.info("[BlockySmoke] Emitting Java Flight Recorder events");
+			else
+				logger.warning("[BlockySmoke] Java Flight Recorder not available on this Java version; not emitting events");
+		}
 
 		final String smokeTypeString = config.getString("smokeType");
 
@@ -136,16 +241,24 @@ public final class BlockySmokePlugin extends JavaPlugin implements Listener {
 		if ((windFrom != null) ? (windTo == null) : (windTo != null))
 			throw new IllegalArgumentException("windFrom and windTo must both be specified, or neither");
 		logger.info("[BlockySmoke] Settings:");
-		logger.info("[BlockySmoke]   Delay: " + delay);
-		logger.info("[BlockySmoke]   Wind strength: " + minWindStrength + " - " + maxWindStrength);
+		logger.info("[BlockySmoke]   Default interval: " + delay);
+		logger.info("[BlockySmoke]   Source check interval: " + sourceCheckInterval);
+		logger.info("[BlockySmoke]   Teardown budget: " + teardownBudget);
+		logger.info("[BlockySmoke]   Pre-warm ticks: " + prewarmTicks);
+		logger.info("[BlockySmoke]   Pre-warm budget: " + prewarmBudget);
+		logger.info("[BlockySmoke]   Protect smoke: " + protectSmoke);
+		logger.info("[BlockySmoke]   Default wind strength: " + minWindStrength + " - " + maxWindStrength);
 		logger.info("[BlockySmoke]   Default smoke type: " + smokeType);
 		logger.info("[BlockySmoke]   Default density: " + densityMin + " - " + densityMax);
 		logger.info("[BlockySmoke]   Default max. distance: " + maxDistance);
 		logger.info("[BlockySmoke]   Default decay chance: " + decayChance);
 		logger.info("[BlockySmoke]   Default random spread: " + randomSpread);
 		logger.info("[BlockySmoke]   Default wind direction: " + ((windFrom != null) ? (windFrom + " - " + windTo) : "random"));
+		loadProfiles(config);
+		logger.info("[BlockySmoke]   Profiles: " + profiles.keySet());
 
-		// Activate loaded worlds
+		// Activate loaded worlds. Their smokers are loaded in parallel in the
+		// background
 		final Server server = getServer();
 		for (final World world: server.getWorlds())
 			activateWorld(world);
@@ -153,54 +266,140 @@ public final class BlockySmokePlugin extends JavaPlugin implements Listener {
 		// Register commands
 		final PluginManager pm = server.getPluginManager();
 		getCommand("createsmoker").setExecutor(commandExecutor);
+		getCommand("smokerset").setExecutor(commandExecutor);
 		getCommand("removesmoker").setExecutor(commandExecutor);
 		getCommand("removeallsmokers").setExecutor(commandExecutor);
 		getCommand("pausesmokers").setExecutor(commandExecutor);
 		getCommand("continuesmokers").setExecutor(commandExecutor);
 		getCommand("inspectsmoker").setExecutor(commandExecutor);
+		getCommand("smokeexport").setExecutor(commandExecutor);
+		getCommand("smokeimport").setExecutor(commandExecutor);
+		getCommand("reloadsmokerprofiles").setExecutor(commandExecutor);
+		getCommand("smokememory").setExecutor(commandExecutor);
+		getCommand("smokebench").setExecutor(commandExecutor);
+		getCommand("smokecompare").setExecutor(commandExecutor);
 		pm.registerEvents(this, this);
 
-		// Start background processing
+		// Register the service API for other plugins
+		server.getServicesManager().register(BlockySmokeService.class, service, this, ServicePriority.Normal);
+
+		// Expose the estimated memory use over JMX
+		memoryTotals = createMemoryReport(0);
+		try {
+			final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName("org.pepsoft.bukkit.blockysmoke:type=Memory");
+			if (mBeanServer.isRegistered(name))
+				// Left behind by a previous instance which was not disabled
+				// cleanly
+				mBeanServer.unregisterMBean(name);
+			mBeanServer.registerMBean(new BlockySmokeMemory(this), name);
+			memoryBeanName = name;
+		} catch (final JMException e) {
+			logger.log(Level.WARNING, "[BlockySmoke] Could not register memory MBean", e);
+		}
+
+		// Start background processing. This runs every server tick, but only
+		// updates the smokers which are due on that tick according to their
+		// interval and phase
 		server.getScheduler().scheduleSyncRepeatingTask(this, () -> {
-			if (paused)
+			if (paused) {
+				publishSnapshot();
 				return;
+			}
 
 			final long start = System.currentTimeMillis();
+			final long now = ++runCount;
+			final boolean sweep = (now % ((long) sourceCheckInterval * delay)) == 0;
 			for (final World world: getServer().getWorlds()) {
 				final String worldName = world.getName();
+				final SmokeWorld smokeWorld = getSmokeWorld(world);
 				final Map<IntLocation, SmokingBlock> smokingBlocks = activeBlocks.get(worldName);
 				if (smokingBlocks != null) {
+					// Verify the source blocks which may have been affected by
+					// block events, or periodically all of them, to catch
+					// changes for which no event was fired
 					final Set<SmokingBlock> blocksToRemove = new HashSet<>();
-					for (final SmokingBlock smokingBlock: smokingBlocks.values())
-						if (! smokingBlock.tick(world))
-							blocksToRemove.add(smokingBlock);
+					final Set<IntLocation> locationsToCheck = pendingSourceChecks.remove(worldName);
+					if (sweep) {
+						for (final SmokingBlock smokingBlock: smokingBlocks.values())
+							if (! smokingBlock.isSourcePresent(world))
+								blocksToRemove.add(smokingBlock);
+					} else if (locationsToCheck != null)
+						for (final IntLocation location: locationsToCheck) {
+							final SmokingBlock smokingBlock = smokingBlocks.get(location);
+							if ((smokingBlock != null) && (! smokingBlock.isSourcePresent(world)))
+								blocksToRemove.add(smokingBlock);
+						}
+
+					if (! blocksToRemove.isEmpty())
+						staleSnapshotWorlds.add(worldName);
 					for (final SmokingBlock blockToRemove: blocksToRemove) {
+						// The original block is gone; remove all the smoke
+						blockToRemove.removeAllSmoke(smokeWorld);
+						smokeWorld.smokerRemoved(blockToRemove);
 						smokingBlocks.remove(blockToRemove.location);
 						allBlocks.get(worldName).remove(blockToRemove.location);
+						unindexSmoker(smokersByChunk.get(worldName), blockToRemove.location);
 					}
+
+					// Open or close the gates of the gated smokers of which the
+					// power may have changed, and wake up the dormant ones
+					// which are now powered
+					final Set<IntLocation> gatesToCheck = pendingGateChecks.remove(worldName);
+					if (gatesToCheck != null)
+						for (final IntLocation location: gatesToCheck) {
+							final SmokingBlock smokingBlock = smokingBlocks.get(location);
+							if ((smokingBlock != null) && smokingBlock.isGated()) {
+								final boolean powered = world.getBlockAt(location.x, location.y, location.z).isBlockIndirectlyPowered();
+								smokingBlock.setGateOpen(powered);
+								smokeWorld.snapshotStale = true;
+								if (powered)
+									smokeWorld.schedule.schedule(smokingBlock, now);
+							}
+						}
 					if (smokingBlocks.isEmpty()) {
 						activeBlocks.remove(worldName);
-						if (allBlocks.get(worldName).isEmpty())
+						if (allBlocks.get(worldName).isEmpty()) {
 							allBlocks.remove(worldName);
+							smokersByChunk.remove(worldName);
+						}
 					}
 				}
+				// Smokers which are no longer active are dropped from the
+				// schedule here, and rescheduled when they are activated again.
+				// So are gated smokers which have nothing to do until their
+				// gate opens
+				final Object tickEvent = SmokeEvents.beginTick(smokeWorld);
+				smokeWorld.schedule.advance(now, smokingBlock -> {
+					if ((smokingBlocks == null) || (smokingBlocks.get(smokingBlock.location) != smokingBlock))
+						return false;
+					smokingBlock.tick(smokeWorld);
+					if (smokingBlock.isDormant()) {
+						smokingBlock.pack(smokeWorld);
+						return false;
+					} else
+						return true;
+				});
+				SmokeEvents.commitTick(tickEvent, smokeWorld);
+				if ((now % delay) == 0)
+					smokeWorld.wind.tick();
 			}
 
-			if (random.nextInt(3) == 0)
-				if (random.nextBoolean())
-					windDirection = windDirection.clockwise();
-				else
-					windDirection = windDirection.counterClockwise();
-			if (random.nextInt(3) == 0) {
-				windStrength += random.nextInt(3) - 1;
-				if (windStrength < minWindStrength)
-					windStrength = minWindStrength;
-				else if (windStrength > maxWindStrength)
-					windStrength = maxWindStrength;
-			}
+			publishSnapshot();
+
 			if (logger.isLoggable(Level.FINE))
 				logger.fine("Updating blocky smokers took " + (System.currentTimeMillis() - start) + " ms");
-		}, delay, delay);
+		}, 1, 1);
+
+		// Write the smoke ledgers in the background once a second, also while
+		// paused, since the teardown keeps clearing smoke. Also publish the
+		// memory totals for the MBean, which are cheap to compute from the
+		// running totals
+		server.getScheduler().scheduleSyncRepeatingTask(this, () -> {
+			for (final SmokeWorld smokeWorld: smokeWorlds.values())
+				smokeWorld.ledger.flush();
+			memoryTotals = createMemoryReport(0);
+		}, LEDGER_FLUSH_INTERVAL, LEDGER_FLUSH_INTERVAL);
 	}
 
 	@EventHandler(priority= EventPriority.MONITOR, ignoreCancelled=true)
@@ -232,9 +431,26 @@ public final class BlockySmokePlugin extends JavaPlugin implements Listener {
 		final Chunk chunk = event.getChunk();
 		if (logger.isLoggable(Level.FINE))
 			logger.fine("[BlockySmoke] ChunkLoadEvent for chunk @ " + chunk.getX() + ", " + chunk.getZ() + " in world " + chunk.getWorld().getName());
+		final SmokeWorld smokeWorld = getSmokeWorld(chunk.getWorld());
+		smokeWorld.chunkLoaded(chunk.getX(), chunk.getZ());
+		final Map<IntLocation, Material> orphanedSmoke = smokeWorld.orphanedSmoke.remove(IntLocation.chunkKey(chunk.getX(), chunk.getZ()));
+		if (orphanedSmoke != null)
+			teardown.addOrphans(smokeWorld, orphanedSmoke);
 		activateChunk(chunk);
 	}
 
+	/**
+	 * Keep the chunks of a running benchmark loaded, since its smokers are
+	 * not registered and their smoke would otherwise be saved with the
+	 * chunks.
+	 */
+	@EventHandler(priority= EventPriority.LOW, ignoreCancelled=true)
+	public void onBenchmarkChunkUnload(ChunkUnloadEvent event) {
+		final Chunk chunk = event.getChunk();
+		if ((currentBenchmark != null) && currentBenchmark.holdsChunk(chunk.getWorld().getName(), chunk.getX(), chunk.getZ()))
+			event.setCancelled(true);
+	}
+
 	@EventHandler(priority= EventPriority.MONITOR, ignoreCancelled=true)
 	public void onChunkUnload(ChunkUnloadEvent event) {
 		final Chunk chunk = event.getChunk();
@@ -242,22 +458,186 @@ public final class BlockySmokePlugin extends JavaPlugin implements Listener {
 		final String worldName = chunk.getWorld().getName();
 		if (logger.isLoggable(Level.FINE))
 			logger.fine("[BlockySmoke] ChunkUnloadEvent for chunk @ " + chunkX + ", " + chunkZ + " in world " + worldName);
+		// Remove the smoke from the chunk before it is saved. The smokers in
+		// the chunk are deactivated, so all their smoke goes; the plumes of
+		// other smokers only lose the part in the chunk
+		final SmokeWorld smokeWorld = getSmokeWorld(chunk.getWorld());
+		if ((currentBenchmark != null) && currentBenchmark.holdsChunk(worldName, chunkX, chunkZ))
+			// Another plugin let a chunk of the benchmark unload after all;
+			// stop it, which removes its smoke while the chunk is still
+			// loaded
+			currentBenchmark.abort();
 		final Map<IntLocation, SmokingBlock> activeBlocksForWorld = activeBlocks.get(worldName);
+		final Set<IntLocation> locations = getSmokersInChunk(worldName, chunkX, chunkZ);
 		if (activeBlocksForWorld != null) {
-			for (final Iterator<Map.Entry<IntLocation, SmokingBlock>> i = activeBlocksForWorld.entrySet().iterator(); i.hasNext(); ) {
-				final Map.Entry<IntLocation, SmokingBlock> entry = i.next();
-				final IntLocation location = entry.getKey();
-				if ((location.x >> 4 == chunkX) && (location.z >> 4 == chunkZ)) {
-					if (logger.isLoggable(Level.FINE))
-						logger.fine("[BlockySmoke] Deactivating smoker @ " + location);
-					i.remove();
-				}
+			int cellsCleared = 0;
+			for (final SmokingBlock smokingBlock: activeBlocksForWorld.values())
+				if ((locations != null) && locations.contains(smokingBlock.location))
+					cellsCleared += smokingBlock.removeLoadedSmoke(smokeWorld);
+				else
+					cellsCleared += smokingBlock.removeSmoke(smokeWorld, chunkX, chunkZ);
+			if ((cellsCleared > 0) && logger.isLoggable(Level.FINE))
+				logger.fine("[BlockySmoke] Cleared " + cellsCleared + " cells of smoke for unloading chunk @ " + chunkX + ", " + chunkZ);
+		}
+		// Smoke still queued for removal in the background must go as well
+		final int pendingCleared = smokeWorld.clearPendingTeardown(chunkX, chunkZ);
+		if ((pendingCleared > 0) && logger.isLoggable(Level.FINE))
+			logger.fine("[BlockySmoke] Cleared " + pendingCleared + " cells of pending teardown for unloading chunk @ " + chunkX + ", " + chunkZ);
+		smokeWorld.chunkUnloaded(chunkX, chunkZ);
+		if ((activeBlocksForWorld != null) && (locations != null)) {
+			staleSnapshotWorlds.add(worldName);
+			for (final IntLocation location: locations) {
+				if (logger.isLoggable(Level.FINE))
+					logger.fine("[BlockySmoke] Deactivating smoker @ " + location);
+				activeBlocksForWorld.remove(location);
 			}
 			if (activeBlocksForWorld.isEmpty())
 				activeBlocks.remove(worldName);
 		}
 	}
 
+	// Protection of the smoke, if enabled. These run early, so that other
+	// plugins see the events cancelled
+
+	@EventHandler(priority= EventPriority.LOW, ignoreCancelled=true)
+	public void onSmokeBreak(BlockBreakEvent event) {
+		if (protectSmoke && isSmoke(event.getBlock()))
+			event.setCancelled(true);
+	}
+
+	@EventHandler(priority= EventPriority.LOW, ignoreCancelled=true)
+	public void onSmokeReplace(BlockPlaceEvent event) {
+		if (protectSmoke && isSmoke(event.getBlockPlaced()))
+			event.setCancelled(true);
+	}
+
+	@EventHandler(priority= EventPriority.LOW, ignoreCancelled=true)
+	public void onSmokeFlow(BlockFromToEvent event) {
+		if (protectSmoke && isSmoke(event.getToBlock()))
+			event.setCancelled(true);
+	}
+
+	@EventHandler(priority= EventPriority.LOW, ignoreCancelled=true)
+	public void onSmokePushed(BlockPistonExtendEvent event) {
+		if (protectSmoke)
+			for (final Block block: event.getBlocks())
+				if (isSmoke(block)) {
+					event.setCancelled(true);
+					return;
+				}
+	}
+
+	@EventHandler(priority= EventPriority.LOW, ignoreCancelled=true)
+	public void onSmokePulled(BlockPistonRetractEvent event) {
+		if (protectSmoke)
+			for (final Block block: event.getBlocks())
+				if (isSmoke(block)) {
+					event.setCancelled(true);
+					return;
+				}
+	}
+
+	@EventHandler(priority= EventPriority.LOW, ignoreCancelled=true)
+	public void onSmokeBlockExplode(BlockExplodeEvent event) {
+		if (protectSmoke)
+			event.blockList().removeIf(this::isSmoke);
+	}
+
+	@EventHandler(priority= EventPriority.LOW, ignoreCancelled=true)
+	public void onSmokeEntityExplode(EntityExplodeEvent event) {
+		if (protectSmoke)
+			event.blockList().removeIf(this::isSmoke);
+	}
+
+	@EventHandler(priority= EventPriority.MONITOR, ignoreCancelled=true)
+	public void onBlockBreak(BlockBreakEvent event) {
+		scheduleSourceCheck(event.getBlock());
+	}
+
+	@EventHandler(priority= EventPriority.MONITOR, ignoreCancelled=true)
+	public void onBlockBurn(BlockBurnEvent event) {
+		scheduleSourceCheck(event.getBlock());
+	}
+
+	@EventHandler(priority= EventPriority.MONITOR, ignoreCancelled=true)
+	public void onBlockExplode(BlockExplodeEvent event) {
+		scheduleSourceCheck(event.getBlock());
+		for (final Block block: event.blockList())
+			scheduleSourceCheck(block);
+	}
+
+	@EventHandler(priority= EventPriority.MONITOR, ignoreCancelled=true)
+	public void onEntityExplode(EntityExplodeEvent event) {
+		for (final Block block: event.blockList())
+			scheduleSourceCheck(block);
+	}
+
+	@EventHandler(priority= EventPriority.MONITOR, ignoreCancelled=true)
+	public void onBlockPistonExtend(BlockPistonExtendEvent event) {
+		markBlockChanged(event.getBlock().getRelative(event.getDirection()));
+		for (final Block block: event.getBlocks()) {
+			scheduleSourceCheck(block);
+			scheduleSourceCheck(block.getRelative(event.getDirection()));
+			markBlockChanged(block.getRelative(event.getDirection()));
+		}
+	}
+
+	@EventHandler(priority= EventPriority.MONITOR, ignoreCancelled=true)
+	public void onBlockPistonRetract(BlockPistonRetractEvent event) {
+		for (final Block block: event.getBlocks()) {
+			scheduleSourceCheck(block);
+			markBlockChanged(block.getRelative(event.getDirection()));
+			markBlockChanged(block.getRelative(event.getDirection().getOppositeFace()));
+		}
+	}
+
+	@EventHandler(priority= EventPriority.MONITOR, ignoreCancelled=true)
+	public void onBlockRedstone(BlockRedstoneEvent event) {
+		// The power of the redstone component and its neighbours may be
+		// changing
+		final Block block = event.getBlock();
+		scheduleGateCheck(block);
+		for (final BlockFace face: NEIGHBOURS)
+			scheduleGateCheck(block.getRelative(face));
+	}
+
+	@EventHandler(priority= EventPriority.MONITOR, ignoreCancelled=true)
+	public void onBlockPhysics(BlockPhysicsEvent event) {
+		// A neighbour of the block changed, which may have changed its power
+		scheduleGateCheck(event.getBlock());
+	}
+
+	@EventHandler(priority= EventPriority.MONITOR, ignoreCancelled=true)
+	public void onBlockPlace(BlockPlaceEvent event) {
+		markBlockChanged(event.getBlockPlaced());
+	}
+
+	@EventHandler(priority= EventPriority.MONITOR, ignoreCancelled=true)
+	public void onBlockFromTo(BlockFromToEvent event) {
+		markBlockChanged(event.getToBlock());
+	}
+
+	@EventHandler(priority= EventPriority.MONITOR, ignoreCancelled=true)
+	public void onBlockForm(BlockFormEvent event) {
+		markBlockChanged(event.getBlock());
+	}
+
+	@EventHandler(priority= EventPriority.MONITOR, ignoreCancelled=true)
+	public void onBlockGrow(BlockGrowEvent event) {
+		markBlockChanged(event.getBlock());
+	}
+
+	@EventHandler(priority= EventPriority.MONITOR, ignoreCancelled=true)
+	public void onStructureGrow(StructureGrowEvent event) {
+		for (final BlockState blockState: event.getBlocks())
+			markBlockChanged(blockState.getBlock());
+	}
+
+	@EventHandler(priority= EventPriority.MONITOR, ignoreCancelled=true)
+	public void onEntityChangeBlock(EntityChangeBlockEvent event) {
+		markBlockChanged(event.getBlock());
+	}
+
 	boolean createSmokingBlock(CommandSender sender, String[] args) {
 		if (!sender.isOp()) {
 			sender.sendMessage(ChatColor.RED + "You do not have permission to execute that command");
@@ -282,126 +662,48 @@ public final class BlockySmokePlugin extends JavaPlugin implements Listener {
 		}
 		final IntLocation location = new IntLocation(targetBlock.getX(), targetBlock.getY(), targetBlock.getZ());
 		final SmokingBlock existingSmokingBlock = smokingBlocks.get(location);
-		int myDensityMin = densityMin, myDensityMax = densityMax, myMaxDistance = maxDistance;
-		Material mySmokeType = smokeType;
-		float myDecayChance = decayChance;
-		WindDirection myWindFrom = windFrom, myWindTo = windTo;
-		boolean myRandomSpread = randomSpread;
+		// The profile determines the settings which are not specified, so
+		// look for it first
+		SmokerProfile profile = defaultProfile;
+		List<IntLocation> myEmitterCells = null;
 		for (int i = 0; i < args.length; i++) {
-			final String arg = args[i].trim().toLowerCase();
-			final String[] parts = arg.split("=");
-			if (parts.length != 2) {
-				sender.sendMessage(ChatColor.RED + "Unrecognized argument: " + args[i]);
-				return true;
-			} else if (parts[0].equals("id") || parts[0].equals("type")) {
-				final Material material = Material.matchMaterial(parts[1]);
-				if (material != null)
-					mySmokeType = material;
-				else {
-					sender.sendMessage(ChatColor.RED + "Invalid block type: " + parts[1]);
-					return true;
-
-				}
-			} else if (parts[0].equals("density"))
-				try {
-					myDensityMin = Integer.decode(parts[1]);
-					myDensityMax = myDensityMin;
-					if (myDensityMin < 1) {
-						sender.sendMessage(ChatColor.RED + "Invalid density: " + parts[1]);
-						return true;
-					}
-				} catch (final NumberFormatException e) {
-					sender.sendMessage(ChatColor.RED + "Invalid density: " + parts[1]);
-					return true;
-				}
-			else if (parts[0].equals("mindensity")) {
-				try {
-					myDensityMin = Integer.decode(parts[1]);
-					if (myDensityMin < 1) {
-						sender.sendMessage(ChatColor.RED + "Invalid minimum density: " + parts[1]);
-						return true;
-					}
-				} catch (final NumberFormatException e) {
-					sender.sendMessage(ChatColor.RED + "Invalid minimum density: " + parts[1]);
-					return true;
-				}
-				if (myDensityMax < myDensityMin)
-					myDensityMax = myDensityMin;
-			} else if (parts[0].equals("maxdensity")) {
-				try {
-					myDensityMax = Integer.decode(parts[1]);
-					if (myDensityMax < 1) {
-						sender.sendMessage(ChatColor.RED + "Invalid maximum density: " + parts[1]);
-						return true;
-					}
-				} catch (final NumberFormatException e) {
-					sender.sendMessage(ChatColor.RED + "Invalid maximum density: " + parts[1]);
-					return true;
-				}
-				if (myDensityMax < myDensityMin)
-					myDensityMin = myDensityMax;
-			} else if (parts[0].equals("maxdistance"))
-				try {
-					myMaxDistance = Integer.decode(parts[1]);
-					if ((myMaxDistance < 1)) {
-						sender.sendMessage(ChatColor.RED + "Invalid maximum distance: " + parts[1]);
-						return true;
-					}
-				} catch (final NumberFormatException e) {
-					sender.sendMessage(ChatColor.RED + "Invalid maximum distance: " + parts[1]);
+			final String[] parts = args[i].trim().toLowerCase().split("=");
+			if ((parts.length == 2) && parts[0].equals("profile")) {
+				profile = profiles.get(parts[1]);
+				if (profile == null) {
+					sender.sendMessage(ChatColor.RED + "Unknown profile: " + parts[1] + " (available profiles: " + profiles.keySet() + ")");
 					return true;
 				}
-			else if (parts[0].equals("decaychance") || parts[0].equals("decay") || parts[0].equals("chance"))
+			} else if ((parts.length == 2) && parts[0].equals("emitter")) {
 				try {
-					myDecayChance = Float.parseFloat(parts[1]);
-					if ((myDecayChance < 0.0f) || (myDecayChance > 1.0f)) {
-						sender.sendMessage(ChatColor.RED + "Invalid decay chance: " + parts[1]);
-						return true;
-					}
-				} catch (final NumberFormatException e) {
-					sender.sendMessage(ChatColor.RED + "Invalid decay chance: " + parts[1]);
-					return true;
-				}
-			else if (parts[0].equals("wind") || parts[0].equals("dir") || parts[0].equals("direction") || parts[0].equals("winddir")) {
-				if (parts[1].equals("random")) {
-					myWindFrom = null;
-					myWindTo = null;
-				} else
-					try {
-						final int p = parts[1].indexOf('-');
-						if (p == -1) {
-							myWindFrom = WindDirection.valueOf(parts[1].trim().toUpperCase());
-							myWindTo = myWindFrom;
-						} else {
-							myWindFrom = WindDirection.valueOf(parts[1].substring(0, p).trim().toUpperCase());
-							myWindTo = WindDirection.valueOf(parts[1].substring(p + 1).trim().toUpperCase());
-						}
-					} catch (final IllegalArgumentException e) {
-						sender.sendMessage(ChatColor.RED + "Invalid wind direction specification: " + parts[1]);
-						return true;
-					}
-			} else if (parts[0].equals("randomspread") || parts[0].equals("random")) {
-				if (! parts[1].trim().isEmpty())
-					myRandomSpread = Boolean.parseBoolean(parts[1].trim());
-				else {
-					sender.sendMessage(ChatColor.RED + "Invalid random spread argument: " + parts[1]);
+					myEmitterCells = EmitterShapes.parse(parts[1], location);
+				} catch (final IllegalArgumentException e) {
+					sender.sendMessage(ChatColor.RED + "Invalid emitter: " + e.getMessage());
 					return true;
 				}
-			} else {
-				sender.sendMessage(ChatColor.RED + "Unrecognized argument: " + args[i]);
-				return true;
 			}
 		}
-		if (existingSmokingBlock != null)
-			existingSmokingBlock.removeAllSmoke(world);
-		final SmokingBlock smokingBlock = new SmokingBlock(location, targetBlock.getType(), mySmokeType, myDensityMin, myDensityMax, myDecayChance, myMaxDistance, myWindFrom, myWindTo, myRandomSpread);
+		final SmokerSettings settings = parseSettings(sender, args, profile.settings, CREATE_ARGS);
+		if (settings == null)
+			return true;
+		if (existingSmokingBlock != null) {
+			existingSmokingBlock.removeAllSmoke(getSmokeWorld(world));
+			getSmokeWorld(world).smokerRemoved(existingSmokingBlock);
+		}
+		final SmokingBlock smokingBlock = new SmokingBlock(location, targetBlock.getType(), profile, settings, myEmitterCells);
 		smokingBlocks.put(location, smokingBlock);
+		getSmokeWorld(world).smokerAdded(smokingBlock);
+		indexSmoker(getChunkIndex(worldName), location);
 		smokingBlocks = activeBlocks.get(worldName);
 		if (smokingBlocks == null) {
 			smokingBlocks = new HashMap<>();
 			activeBlocks.put(worldName, smokingBlocks);
 		}
 		smokingBlocks.put(location, smokingBlock);
+		staleSnapshotWorlds.add(worldName);
+		getSmokeWorld(world).schedule.schedule(smokingBlock, runCount);
+		if (smokingBlock.isGated())
+			addPendingGateCheck(worldName, location);
 		final StringBuilder message = new StringBuilder();
 		message.append(ChatColor.YELLOW).append("Smoking block ").append((existingSmokingBlock != null) ? "updated" : "created").append(" at ").append(location);
 		message.append("; ").append(describeSmokingBlock(smokingBlock, false));
@@ -411,6 +713,51 @@ public final class BlockySmokePlugin extends JavaPlugin implements Listener {
 		return true;
 	}
 
+	boolean setSmoker(CommandSender sender, String[] args) {
+		if (! sender.isOp()) {
+			sender.sendMessage(ChatColor.RED + "You do not have permission to execute that command");
+			return true;
+		} else if (! (sender instanceof Player)) {
+			sender.sendMessage(ChatColor.RED + "This command needs a target block and can only be executed in-game");
+			return true;
+		} else if (args.length < 1)
+			return false;
+		final HashSet<Material> transparentBlocks = new HashSet<>(Arrays.asList(Material.AIR, smokeType));
+		final Block targetBlock = ((Player) sender).getTargetBlock(transparentBlocks, 5);
+		if ((targetBlock == null) || (targetBlock.getType() == Material.AIR) || (targetBlock.getType() == smokeType)) {
+			sender.sendMessage(ChatColor.RED + "No target block");
+			return true;
+		}
+		final World world = targetBlock.getWorld();
+		final String worldName = world.getName();
+		final IntLocation location = new IntLocation(targetBlock.getX(), targetBlock.getY(), targetBlock.getZ());
+		final SmokingBlock smokingBlock = allBlocks.containsKey(worldName) ? allBlocks.get(worldName).get(location) : null;
+		if (smokingBlock == null) {
+			sender.sendMessage(ChatColor.RED + "The targeted block (type: " + targetBlock.getType() + ", coords: " + location + ") is not a blocky smoker");
+			return true;
+		}
+		final SmokerSettings settings = parseSettings(sender, args, smokingBlock.getSettings(), Collections.<String>emptySet());
+		if (settings == null)
+			return true;
+		SmokerProfile profile = profiles.get(smokingBlock.getProfileName());
+		if (profile == null)
+			profile = defaultProfile;
+		// Change the live instance, so that the plume is kept as far as the
+		// new settings allow
+		final SmokeWorld smokeWorld = getSmokeWorld(world);
+		final int trimmed = smokingBlock.reconfigure(profile, settings, smokeWorld);
+		if (activeBlocks.containsKey(worldName) && activeBlocks.get(worldName).containsKey(location)) {
+			// A change of gate may have woken the smoker up or put it to sleep
+			smokeWorld.schedule.schedule(smokingBlock, runCount);
+			if (smokingBlock.isGated())
+				addPendingGateCheck(worldName, location);
+		}
+		sender.sendMessage(ChatColor.YELLOW + "Smoking block at " + location + " reconfigured (" + trimmed + " smoke particles trimmed); " + describeSmokingBlock(smokingBlock, false));
+		if (paused)
+			sender.sendMessage(ChatColor.YELLOW + "Please note: blocky smokers are currently paused!");
+		return true;
+	}
+
 	boolean removeSmoker(CommandSender sender) {
 		if (! sender.isOp()) {
 			sender.sendMessage(ChatColor.RED + "You do not have permission to execute that command");
@@ -432,15 +779,20 @@ public final class BlockySmokePlugin extends JavaPlugin implements Listener {
 			final IntLocation location = new IntLocation(targetBlock.getX(), targetBlock.getY(), targetBlock.getZ());
 			final SmokingBlock existingSmokingBlock = smokingBlocks.remove(location);
 			if (existingSmokingBlock != null) {
-				existingSmokingBlock.removeAllSmoke(world);
+				existingSmokingBlock.removeAllSmoke(getSmokeWorld(world));
+				getSmokeWorld(world).smokerRemoved(existingSmokingBlock);
+				staleSnapshotWorlds.add(worldName);
 				final Map<IntLocation, SmokingBlock> myActiveBlocks = activeBlocks.get(worldName);
 				if (myActiveBlocks != null) {
 					myActiveBlocks.remove(location);
 					if (myActiveBlocks.isEmpty())
 						activeBlocks.remove(worldName);
 				}
-				if (smokingBlocks.isEmpty())
+				unindexSmoker(smokersByChunk.get(worldName), location);
+				if (smokingBlocks.isEmpty()) {
 					allBlocks.remove(worldName);
+					smokersByChunk.remove(worldName);
+				}
 				sender.sendMessage(ChatColor.YELLOW + "Blocky smoker deleted");
 				return true;
 			}
@@ -461,10 +813,15 @@ public final class BlockySmokePlugin extends JavaPlugin implements Listener {
 		final String worldName = world.getName();
 		final Map<IntLocation, SmokingBlock> blocks = allBlocks.get(worldName);
 		if (blocks != null) {
+			// Remove the smoke in the background
+			final SmokeWorld smokeWorld = getSmokeWorld(world);
+			teardown.add(smokeWorld, blocks.values(), sender, "of deleted blocky smokers in world " + worldName);
 			for (final SmokingBlock smokingBlock: blocks.values())
-				smokingBlock.removeAllSmoke(world);
+				smokeWorld.smokerRemoved(smokingBlock);
 			allBlocks.remove(worldName);
 			activeBlocks.remove(worldName);
+			smokersByChunk.remove(worldName);
+			staleSnapshotWorlds.add(worldName);
 		}
 		sender.sendMessage(ChatColor.YELLOW + "All block smokers deleted from world " + worldName);
 		return true;
@@ -479,11 +836,9 @@ public final class BlockySmokePlugin extends JavaPlugin implements Listener {
 			sender.sendMessage(ChatColor.RED + "Blocky smokers already paused");
 			return true;
 		}
-		for (final Map.Entry<String, Map<IntLocation, SmokingBlock>> entry: activeBlocks.entrySet()) {
-			final World world = getServer().getWorld(entry.getKey());
-			for (final SmokingBlock smokingBlock: entry.getValue().values())
-				smokingBlock.removeAllSmoke(world);
-		}
+		// Remove the smoke in the background
+		for (final Map.Entry<String, Map<IntLocation, SmokingBlock>> entry: activeBlocks.entrySet())
+			teardown.add(getSmokeWorld(getServer().getWorld(entry.getKey())), entry.getValue().values(), sender, "of paused blocky smokers in world " + entry.getKey());
 		paused = true;
 		sender.sendMessage(ChatColor.YELLOW + "All blocky smokers paused");
 		return true;
@@ -529,90 +884,1064 @@ public final class BlockySmokePlugin extends JavaPlugin implements Listener {
 		return true;
 	}
 
-	private String describeSmokingBlock(SmokingBlock smokingBlock, boolean includeType) {
-		final StringBuilder description = new StringBuilder();
-		if (includeType || (smokingBlock.smokeType != smokeType))
-			description.append("type: ").append(smokingBlock.smokeType.name());
-		if (description.length() > 0)
-			description.append(", ");
-		description.append("decayChance: ").append(smokingBlock.decayChance);
-		description.append(", maxDistance: ").append(smokingBlock.maxDistance);
-		if (smokingBlock.densityMin == smokingBlock.densityMax)
-			description.append(", density: ").append(smokingBlock.densityMin);
-		else {
-			description.append(", minDensity: ").append(smokingBlock.densityMin);
-			description.append(", maxDensity: ").append(smokingBlock.densityMax);
-		}
-		if (smokingBlock.fromDirection != null) {
-			if (smokingBlock.fromDirection == smokingBlock.toDirection)
-				description.append(", wind: ").append(smokingBlock.fromDirection.name());
-			else
-				description.append(", wind: ").append(smokingBlock.fromDirection.name()).append('-').append(smokingBlock.toDirection.name());
-		} else
-			description.append(", wind: random");
-		description.append(", randomSpread: ").append(smokingBlock.randomSpread);
-		return description.toString();
+	/**
+	 * Determine whether a block contains smoke placed by a smoker, without
+	 * reading the world.
+	 */
+	boolean isSmoke(Block block) {
+		final SmokeWorld smokeWorld = smokeWorlds.get(block.getWorld().getName());
+		return (smokeWorld != null) && smokeWorld.isSmoke(block.getX(), block.getY(), block.getZ());
 	}
 
-	private void activateWorld(World world) {
-		final String worldName = world.getName();
-		logger.info("[BlockySmoke] Activating world " + worldName);
-		final Map<IntLocation, SmokingBlock> blocks = loadBlocks(worldName);
-		if (blocks != null) {
-			allBlocks.put(worldName, blocks);
-			for (final Chunk chunk: world.getLoadedChunks())
-				activateChunk(chunk);
-		}
+	boolean isSmoke(World world, int x, int y, int z) {
+		final SmokeWorld smokeWorld = smokeWorlds.get(world.getName());
+		return (smokeWorld != null) && smokeWorld.isSmoke(x, y, z);
 	}
 
-	private void deactivateWorld(World world) {
-		final String worldName = world.getName();
-		logger.info("[BlockySmoke] Deactivating world " + worldName);
-		final Map<IntLocation, SmokingBlock> blocks = allBlocks.remove(worldName);
-		saveBlocks(worldName, blocks);
-		activeBlocks.remove(worldName);
+	SmokerSettings getDefaultSettings() {
+		return defaultProfile.settings;
 	}
 
-	private void activateChunk(Chunk chunk) {
+	SmokerProfile getProfile(String name) {
+		return profiles.get(name.toLowerCase());
+	}
+
+	int createSmokers(World world, Collection<IntLocation> locations, SmokerProfile profile, SmokerSettings settings) {
+		final List<SmokingBlock> newSmokingBlocks = new ArrayList<>(locations.size());
+		for (final IntLocation location: locations) {
+			final Material blockType = world.getBlockAt(location.x, location.y, location.z).getType();
+			if ((blockType != Material.AIR) && (blockType != settings.smokeType))
+				newSmokingBlocks.add(new SmokingBlock(location, blockType, profile, settings));
+		}
+		final int count = putSmokers(world, newSmokingBlocks);
 		if (logger.isLoggable(Level.FINE))
-			logger.fine("[BlockySmoke] Activating chunk @ " + chunk.getX() + ", " + chunk.getZ());
-		final String worldName = chunk.getWorld().getName();
-		if (allBlocks.containsKey(worldName)) {
-			final int chunkX = chunk.getX(), chunkZ = chunk.getZ();
-			for (final Map.Entry<IntLocation, SmokingBlock> entry: allBlocks.get(worldName).entrySet()) {
-				final IntLocation location = entry.getKey();
-				if ((location.x >> 4 == chunkX) && (location.z >> 4 == chunkZ)) {
-					if (logger.isLoggable(Level.FINE))
-						logger.fine("[BlockySmoke] Activating smoker @ " + location);
-					Map<IntLocation, SmokingBlock> activeBlocksForWorld = activeBlocks.get(worldName);
-					if (activeBlocksForWorld == null) {
-						activeBlocksForWorld = new HashMap<>();
-						activeBlocks.put(worldName, activeBlocksForWorld);
-					}
-					final SmokingBlock smokingBlock = entry.getValue();
-					activeBlocksForWorld.put(location, smokingBlock);
+			logger.fine("[BlockySmoke] Created " + count + " blocky smokers in world " + world.getName() + " through service");
+		if (count > 0)
+			saveWorld(world.getName());
+		return count;
+	}
 
-					// If we are currently paused there should be no smoke;
-					// which might still exist in the world for this smoker
-					if (paused)
-						smokingBlock.removeAllSmoke(chunk.getWorld());
-				}
+	/**
+	 * Add a batch of smokers to a world, replacing any existing smokers at the
+	 * same locations. Smokers in loaded chunks are activated immediately. Does
+	 * not save the smokers; use {@link #saveWorld(String)} for that once the
+	 * batch (or series of batches) is complete.
+	 *
+	 * @return The number of smokers added or replaced.
+	 */
+	int putSmokers(World world, Collection<SmokingBlock> newSmokingBlocks) {
+		final String worldName = world.getName();
+		Map<IntLocation, SmokingBlock> smokingBlocks = allBlocks.get(worldName);
+		if (smokingBlocks == null) {
+			smokingBlocks = new HashMap<>();
+			allBlocks.put(worldName, smokingBlocks);
+		}
+		Map<IntLocation, SmokingBlock> myActiveBlocks = activeBlocks.get(worldName);
+		if (myActiveBlocks == null) {
+			myActiveBlocks = new HashMap<>();
+			activeBlocks.put(worldName, myActiveBlocks);
+		}
+		final Map<Long, Set<IntLocation>> chunkIndex = getChunkIndex(worldName);
+		final SmokeWorld smokeWorld = getSmokeWorld(world);
+		final SmokerSchedule schedule = smokeWorld.schedule;
+		for (final SmokingBlock smokingBlock: newSmokingBlocks) {
+			final IntLocation location = smokingBlock.location;
+			final SmokingBlock existingSmokingBlock = smokingBlocks.put(location, smokingBlock);
+			if (existingSmokingBlock != null) {
+				existingSmokingBlock.removeAllSmoke(smokeWorld);
+				smokeWorld.smokerRemoved(existingSmokingBlock);
 			}
+			smokeWorld.smokerAdded(smokingBlock);
+			indexSmoker(chunkIndex, location);
+			if (world.isChunkLoaded(location.x >> 4, location.z >> 4)) {
+				myActiveBlocks.put(location, smokingBlock);
+				schedule.schedule(smokingBlock, runCount);
+				if (smokingBlock.isGated())
+					addPendingGateCheck(worldName, location);
+			} else
+				myActiveBlocks.remove(location);
 		}
+		cleanUpWorld(worldName);
+		staleSnapshotWorlds.add(worldName);
+		return newSmokingBlocks.size();
 	}
 
-	@SuppressWarnings("unchecked") // Guaranteed by Java
-	private Map<IntLocation, SmokingBlock> loadBlocks(String worldName) {
+	/**
+	 * Create a smoking block with the profile with a particular name, or the
+	 * default profile if there is no such profile.
+	 */
+	SmokingBlock newSmokingBlock(IntLocation location, Material blockType, String profileName, SmokerSettings settings, List<IntLocation> emitterCells) {
+		final SmokerProfile profile = (profileName != null) ? profiles.get(profileName.toLowerCase()) : null;
+		return new SmokingBlock(location, blockType, (profile != null) ? profile : defaultProfile, settings, emitterCells);
+	}
+
+	/**
+	 * Determine whether a smoker is currently active, in other words whether
+	 * its chunk is loaded and it has not been removed or replaced, and its
+	 * world has not been deactivated or activated again.
+	 */
+	boolean isActive(SmokeWorld smokeWorld, SmokingBlock smokingBlock) {
+		final String worldName = smokeWorld.world.getName();
+		final Map<IntLocation, SmokingBlock> activeBlocksForWorld = activeBlocks.get(worldName);
+		return (smokeWorlds.get(worldName) == smokeWorld) && (activeBlocksForWorld != null) && (activeBlocksForWorld.get(smokingBlock.location) == smokingBlock);
+	}
+
+	boolean isPaused() {
+		return paused;
+	}
+
+	long getRunCount() {
+		return runCount;
+	}
+
+	void saveWorld(String worldName) {
+		saveBlocks(worldName, allBlocks.get(worldName));
+	}
+
+	int removeSmokers(World world, Collection<IntLocation> locations) {
+		final String worldName = world.getName();
+		final Map<IntLocation, SmokingBlock> smokingBlocks = allBlocks.get(worldName);
+		if (smokingBlocks == null)
+			return 0;
+		final Map<IntLocation, SmokingBlock> myActiveBlocks = activeBlocks.get(worldName);
+		final Map<Long, Set<IntLocation>> chunkIndex = smokersByChunk.get(worldName);
+		int count = 0;
+		for (final IntLocation location: locations) {
+			final SmokingBlock existingSmokingBlock = smokingBlocks.remove(location);
+			if (existingSmokingBlock != null) {
+				existingSmokingBlock.removeAllSmoke(getSmokeWorld(world));
+				getSmokeWorld(world).smokerRemoved(existingSmokingBlock);
+				if (myActiveBlocks != null)
+					myActiveBlocks.remove(location);
+				unindexSmoker(chunkIndex, location);
+				count++;
+			}
+		}
+		cleanUpWorld(worldName);
+		if (count > 0)
+			staleSnapshotWorlds.add(worldName);
+		if (logger.isLoggable(Level.FINE))
+			logger.fine("[BlockySmoke] Removed " + count + " blocky smokers from world " + worldName + " through service");
+		if (count > 0)
+			saveBlocks(worldName, allBlocks.get(worldName));
+		return count;
+	}
+
+	Map<IntLocation, SmokerSettings> querySmokers(World world, Collection<IntLocation> locations) {
+		final Map<IntLocation, SmokingBlock> smokingBlocks = allBlocks.get(world.getName());
+		final Map<IntLocation, SmokerSettings> result = new HashMap<>();
+		if (smokingBlocks != null)
+			for (final IntLocation location: locations) {
+				final SmokingBlock smokingBlock = smokingBlocks.get(location);
+				if (smokingBlock != null)
+					result.put(location, smokingBlock.getSettings());
+			}
+		return result;
+	}
+
+	boolean exportSmokers(CommandSender sender, String[] args) {
+		if (! sender.isOp()) {
+			sender.sendMessage(ChatColor.RED + "You do not have permission to execute that command");
+			return true;
+		} else if ((args.length < 1) || (args.length > 2))
+			return false;
+		final File file = getTransferFile(sender, args[0]);
+		if (file == null)
+			return true;
+		// Capture the definitions here, on the main thread, since the
+		// smokers themselves may change while the export is being written
+		final List<SmokerDefinition> definitions = new ArrayList<>();
+		if (args.length == 2) {
+			if (getServer().getWorld(args[1]) == null) {
+				sender.sendMessage(ChatColor.RED + "No such world: " + args[1]);
+				return true;
+			}
+			final Map<IntLocation, SmokingBlock> smokingBlocks = allBlocks.get(args[1]);
+			if (smokingBlocks != null)
+				for (final SmokingBlock smokingBlock: smokingBlocks.values())
+					definitions.add(new SmokerDefinition(args[1], smokingBlock));
+		} else
+			for (final Map.Entry<String, Map<IntLocation, SmokingBlock>> entry: allBlocks.entrySet())
+				for (final SmokingBlock smokingBlock: entry.getValue().values())
+					definitions.add(new SmokerDefinition(entry.getKey(), smokingBlock));
+		new SmokerExport(this, sender, file, definitions).start();
+		sender.sendMessage(ChatColor.YELLOW + "Exporting blocky smokers to " + file.getName() + "...");
+		return true;
+	}
+
+	boolean importSmokers(CommandSender sender, String[] args) {
+		if (! sender.isOp()) {
+			sender.sendMessage(ChatColor.RED + "You do not have permission to execute that command");
+			return true;
+		} else if (args.length != 1)
+			return false;
+		if ((currentImport != null) && (! currentImport.isDone())) {
+			sender.sendMessage(ChatColor.RED + "An import is already in progress");
+			return true;
+		}
+		final File file = getTransferFile(sender, args[0]);
+		if (file == null)
+			return true;
+		else if (! file.isFile()) {
+			sender.sendMessage(ChatColor.RED + "File " + file.getName() + " does not exist in the " + EXPORTS_DIR + " folder of the plugin");
+			return true;
+		}
+		currentImport = new SmokerImport(this, sender, file);
+		currentImport.start();
+		sender.sendMessage(ChatColor.YELLOW + "Importing blocky smokers from " + file.getName() + "...");
+		return true;
+	}
+
+	/**
+	 * Get a file in the exports folder of the plugin, which is kept apart
+	 * from the configuration and the saved smokers so that an export can
+	 * never overwrite them.
+	 */
+	private File getTransferFile(CommandSender sender, String filename) {
+		if ((filename.indexOf('/') != -1) || (filename.indexOf('\\') != -1) || filename.startsWith(".")) {
+			sender.sendMessage(ChatColor.RED + "Invalid file name: " + filename);
+			return null;
+		}
+		final File exportsDir = new File(getDataFolder(), EXPORTS_DIR);
+		if (! exportsDir.isDirectory())
+			exportsDir.mkdirs();
+		return new File(exportsDir, filename);
+	}
+
+	boolean reloadProfiles(CommandSender sender) {
+		if (! sender.isOp()) {
+			sender.sendMessage(ChatColor.RED + "You do not have permission to execute that command");
+			return true;
+		}
+		reloadConfig();
+		try {
+			loadProfiles(getConfig());
+		} catch (final IllegalArgumentException e) {
+			sender.sendMessage(ChatColor.RED + "Invalid profile configuration: " + e.getMessage());
+			return true;
+		}
+		int count = 0;
+		for (final Map.Entry<String, Map<IntLocation, SmokingBlock>> entry: allBlocks.entrySet()) {
+			final String worldName = entry.getKey();
+			final World world = getServer().getWorld(worldName);
+			final Map<IntLocation, SmokingBlock> myActiveBlocks = activeBlocks.get(worldName);
+			staleSnapshotWorlds.add(worldName);
+			for (final SmokingBlock smokingBlock: entry.getValue().values()) {
+				smokingBlock.setProfile(resolveProfile(smokingBlock.getProfileName()), (world != null) ? getSmokeWorld(world) : null);
+				// The gate may have changed. A smoker which was dormant may no
+				// longer be gated, so make sure active smokers are scheduled
+				if ((world != null) && (myActiveBlocks != null) && (myActiveBlocks.get(smokingBlock.location) == smokingBlock)) {
+					getSmokeWorld(world).schedule.schedule(smokingBlock, runCount);
+					if (smokingBlock.isGated())
+						addPendingGateCheck(worldName, smokingBlock.location);
+				}
+				count++;
+			}
+		}
+		sender.sendMessage(ChatColor.YELLOW + "Smoker profiles reloaded (" + profiles.keySet() + "); applied to " + count + " blocky smokers");
+		return true;
+	}
+
+	boolean showMemory(CommandSender sender, String[] args) {
+		if (! sender.isOp()) {
+			sender.sendMessage(ChatColor.RED + "You do not have permission to execute that command");
+			return true;
+		} else if (args.length > 1)
+			return false;
+		int topCount = 5;
+		if (args.length == 1)
+			try {
+				topCount = Integer.parseInt(args[0]);
+				if (topCount < 0) {
+					sender.sendMessage(ChatColor.RED + "Invalid number of smokers: " + args[0]);
+					return true;
+				}
+			} catch (final NumberFormatException e) {
+				sender.sendMessage(ChatColor.RED + "Invalid number of smokers: " + args[0]);
+				return true;
+			}
+		final MemoryReport report = createMemoryReport(topCount);
+		sender.sendMessage(ChatColor.YELLOW + "Estimated memory used by blocky smokers: " + MemoryReport.formatBytes(report.getTotalBytes()));
+		for (final String worldName: report.getWorldNames()) {
+			final StringBuilder message = new StringBuilder();
+			message.append(ChatColor.YELLOW).append("  ").append(worldName).append(": ").append(MemoryReport.formatBytes(report.getBytes(worldName))).append(" (");
+			for (final MemoryReport.Structure structure: MemoryReport.Structure.values()) {
+				if (structure.ordinal() > 0)
+					message.append(", ");
+				message.append(structure.description).append(": ").append(MemoryReport.formatBytes(report.getBytes(worldName, structure)));
+			}
+			message.append(')');
+			sender.sendMessage(message.toString());
+		}
+		if (! report.getTopSmokers().isEmpty()) {
+			sender.sendMessage(ChatColor.YELLOW + "Largest blocky smokers:");
+			for (final MemoryReport.SmokerFootprint footprint: report.getTopSmokers())
+				sender.sendMessage(ChatColor.YELLOW + "  " + footprint.worldName + " @ " + footprint.location + ": " + MemoryReport.formatBytes(footprint.bytes) + " (" + footprint.particleCount + " particles)");
+		}
+		return true;
+	}
+
+	boolean benchmark(CommandSender sender, String[] args) {
+		if (! sender.isOp()) {
+			sender.sendMessage(ChatColor.RED + "You do not have permission to execute that command");
+			return true;
+		} else if (! (sender instanceof Player)) {
+			sender.sendMessage(ChatColor.RED + "This command needs a target location and can only be executed in-game");
+			return true;
+		} else if (args.length < 1)
+			return false;
+		if ((currentBenchmark != null) && (! currentBenchmark.isDone())) {
+			sender.sendMessage(ChatColor.RED + "A benchmark is already in progress");
+			return true;
+		}
+		final int count, ticks, density, interval, spacing;
+		final boolean referenceEngine;
+		try {
+			count = Integer.parseInt(args[0]);
+			int myTicks = 200, myDensity = defaultProfile.settings.densityMax, myInterval = 1, mySpacing = 3;
+			boolean myReferenceEngine = false;
+			for (int i = 1; i < args.length; i++) {
+				final String[] parts = args[i].trim().toLowerCase().split("=");
+				if (parts.length != 2) {
+					sender.sendMessage(ChatColor.RED + "Unrecognized argument: " + args[i]);
+					return true;
+				} else if (parts[0].equals("ticks"))
+					myTicks = Integer.parseInt(parts[1]);
+				else if (parts[0].equals("density"))
+					myDensity = Integer.parseInt(parts[1]);
+				else if (parts[0].equals("interval"))
+					myInterval = Integer.parseInt(parts[1]);
+				else if (parts[0].equals("spacing"))
+					mySpacing = Integer.parseInt(parts[1]);
+				else if (parts[0].equals("engine") && (parts[1].equals("default") || parts[1].equals("reference")))
+					myReferenceEngine = parts[1].equals("reference");
+				else {
+					sender.sendMessage(ChatColor.RED + "Unrecognized argument: " + args[i]);
+					return true;
+				}
+			}
+			ticks = myTicks;
+			density = myDensity;
+			interval = myInterval;
+			spacing = mySpacing;
+			referenceEngine = myReferenceEngine;
+		} catch (final NumberFormatException e) {
+			sender.sendMessage(ChatColor.RED + "Invalid number: " + e.getMessage());
+			return true;
+		}
+		if ((count < 1) || (ticks < 1) || (density < 1) || (interval < 1) || (spacing < 1)) {
+			sender.sendMessage(ChatColor.RED + "The number of smokers, ticks, density, interval and spacing must all be at least 1");
+			return true;
+		}
+
+		// Lay the smokers out in a square grid in the air above the player.
+		// Load the chunks which the smoke can reach now, since the smoke will
+		// not load them, and hold them loaded until the benchmark is done
+		final Player player = (Player) sender;
+		final World world = player.getWorld();
+		final int side = (int) Math.ceil(Math.sqrt(count));
+		final int x0 = player.getLocation().getBlockX() - (side * spacing) / 2, z0 = player.getLocation().getBlockZ() - (side * spacing) / 2;
+		final int y = Math.min(player.getLocation().getBlockY() + 10, world.getMaxHeight() - 1);
+		final SmokerSettings defaults = defaultProfile.settings;
+		final SmokerSettings settings = new SmokerSettings(defaults.smokeType, density, density, defaults.decayChance, defaults.maxDistance, defaults.fromDirection, defaults.toDirection, defaults.randomSpread, interval, SmokerSettings.AUTO_PHASE);
+		// A particle may move a few blocks, depending on the wind, before it
+		// is found to be too far away
+		final int reach = settings.maxDistance + maxWindStrength + 2;
+		final Set<Long> chunks = new HashSet<>();
+		for (int chunkX = (x0 - reach) >> 4; chunkX <= (x0 + (side - 1) * spacing + reach) >> 4; chunkX++)
+			for (int chunkZ = (z0 - reach) >> 4; chunkZ <= (z0 + (side - 1) * spacing + reach) >> 4; chunkZ++) {
+				world.loadChunk(chunkX, chunkZ);
+				chunks.add(IntLocation.chunkKey(chunkX, chunkZ));
+			}
+		final SmokeEngine engine = referenceEngine ? new ReferenceEngine() : new SmokingBlockEngine(delay);
+		final long seed = System.nanoTime();
+		for (int i = 0; i < count; i++)
+			engine.addSmoker(new IntLocation(x0 + (i % side) * spacing, y, z0 + (i / side) * spacing), settings, seed + i);
+		currentBenchmark = new SmokerBenchmark(this, sender, world.getName(), getSmokeWorld(world), engine, count, chunks, ticks);
+		currentBenchmark.start();
+		sender.sendMessage(ChatColor.YELLOW + "Running " + count + " synthetic blocky smokers with the " + engine + " engine for " + ticks + " ticks...");
+		return true;
+	}
+
+	boolean compareEngines(CommandSender sender, String[] args) {
+		if (! sender.isOp()) {
+			sender.sendMessage(ChatColor.RED + "You do not have permission to execute that command");
+			return true;
+		} else if (args.length > 3)
+			return false;
+		final int smokers, ticks;
+		final long seed;
+		try {
+			smokers = (args.length > 0) ? Integer.parseInt(args[0]) : EngineComparison.DEFAULT_SMOKERS;
+			ticks = (args.length > 1) ? Integer.parseInt(args[1]) : EngineComparison.DEFAULT_TICKS;
+			seed = (args.length > 2) ? Long.parseLong(args[2]) : EngineComparison.DEFAULT_SEED;
+		} catch (final NumberFormatException e) {
+			sender.sendMessage(ChatColor.RED + "Invalid number: " + e.getMessage());
+			return true;
+		}
+		if ((smokers < 1) || (ticks < 1)) {
+			sender.sendMessage(ChatColor.RED + "The number of smokers and ticks must both be at least 1");
+			return true;
+		}
+
+		// The engines run in worlds which only exist in memory, so the
+		// comparison can run in the background
+		final EngineComparison comparison = new EngineComparison(new SmokingBlockEngine(), defaultProfile.settings, minWindStrength, maxWindStrength, smokers, ticks, seed);
+		getServer().getScheduler().runTaskAsynchronously(this, () -> {
+			final List<String> report = comparison.run();
+			getServer().getScheduler().runTask(this, () -> {
+				for (final String line: report) {
+					logger.info("[BlockySmoke] " + line);
+					sender.sendMessage(ChatColor.YELLOW + line);
+				}
+			});
+		});
+		sender.sendMessage(ChatColor.YELLOW + "Comparing the smoke engines with " + smokers + " smokers for " + ticks + " ticks...");
+		return true;
+	}
+
+	/**
+	 * Get the most recently published snapshot of the smokers. May be
+	 * invoked from any thread.
+	 */
+	SmokeSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Publish a new snapshot of all smokers. Only the smokers of the worlds
+	 * in which something changed are visited; the lists of the other worlds
+	 * are reused from the previous snapshot. Of those the snapshots of the
+	 * individual smokers are only recreated for the smokers which changed.
+	 */
+	private void publishSnapshot() {
+		for (final Map.Entry<String, SmokeWorld> entry: smokeWorlds.entrySet())
+			if (entry.getValue().snapshotStale) {
+				staleSnapshotWorlds.add(entry.getKey());
+				entry.getValue().snapshotStale = false;
+			}
+		final SmokeSnapshot previousSnapshot = snapshot;
+		if (staleSnapshotWorlds.isEmpty()) {
+			if (previousSnapshot.getTick() != runCount)
+				snapshot = new SmokeSnapshot(runCount, previousSnapshot.smokers);
+			return;
+		}
+		final Map<String, List<SmokerSnapshot>> smokers = new HashMap<>(previousSnapshot.smokers);
+		for (final String worldName: staleSnapshotWorlds) {
+			final Map<IntLocation, SmokingBlock> smokingBlocks = allBlocks.get(worldName);
+			if (smokingBlocks == null) {
+				smokers.remove(worldName);
+				continue;
+			}
+			final Map<IntLocation, SmokingBlock> myActiveBlocks = activeBlocks.get(worldName);
+			final SmokerSnapshot[] smokersOfWorld = new SmokerSnapshot[smokingBlocks.size()];
+			int i = 0;
+			for (final SmokingBlock smokingBlock: smokingBlocks.values())
+				smokersOfWorld[i++] = smokingBlock.getSnapshot((myActiveBlocks != null) && (myActiveBlocks.get(smokingBlock.location) == smokingBlock));
+			smokers.put(worldName, Collections.unmodifiableList(Arrays.asList(smokersOfWorld)));
+		}
+		staleSnapshotWorlds.clear();
+		snapshot = new SmokeSnapshot(runCount, Collections.unmodifiableMap(smokers));
+	}
+
+	/**
+	 * Get the most recently published estimate of the memory use, which does
+	 * not include the largest smokers. May be invoked from any thread.
+	 */
+	MemoryReport getMemoryTotals() {
+		return memoryTotals;
+	}
+
+	MemoryReport createMemoryReport(int topCount) {
+		return new MemoryReport(allBlocks, activeBlocks, smokersByChunk, smokeWorlds, topCount);
+	}
+
+	/**
+	 * Parse the settings arguments of a smoker command.
+	 *
+	 * @param sender The sender of the command, to which any problems are
+	 *     reported.
+	 * @param args The arguments of the command.
+	 * @param base The settings to which the arguments are applied.
+	 * @param otherArgs The names of the arguments which are not settings and
+	 *     are processed by the caller.
+	 * @return The settings, or <code>null</code> if the arguments were not
+	 *     valid, in which case that has been reported to the sender.
+	 */
+	private SmokerSettings parseSettings(CommandSender sender, String[] args, SmokerSettings base, Collection<String> otherArgs) {
+		int myDensityMin = base.densityMin, myDensityMax = base.densityMax, myMaxDistance = base.maxDistance, myInterval = base.interval, myPhase = base.phase;
+		Material mySmokeType = base.smokeType;
+		float myDecayChance = base.decayChance;
+		WindDirection myWindFrom = base.fromDirection, myWindTo = base.toDirection;
+		boolean myRandomSpread = base.randomSpread;
+		SmokerGate myGate = base.gate;
+		for (int i = 0; i < args.length; i++) {
+			final String arg = args[i].trim().toLowerCase();
+			final String[] parts = arg.split("=");
+			if (parts.length != 2) {
+				sender.sendMessage(ChatColor.RED + "Unrecognized argument: " + args[i]);
+				return null;
+			} else if (otherArgs.contains(parts[0])) {
+				// Processed by the caller
+			} else if (parts[0].equals("id") || parts[0].equals("type")) {
+				final Material material = Material.matchMaterial(parts[1]);
+				if (material != null)
+					mySmokeType = material;
+				else {
+					sender.sendMessage(ChatColor.RED + "Invalid block type: " + parts[1]);
+					return null;
+
+				}
+			} else if (parts[0].equals("density"))
+				try {
+					myDensityMin = Integer.decode(parts[1]);
+					myDensityMax = myDensityMin;
+					if (myDensityMin < 1) {
+						sender.sendMessage(ChatColor.RED + "Invalid density: " + parts[1]);
+						return null;
+					}
+				} catch (final NumberFormatException e) {
+					sender.sendMessage(ChatColor.RED + "Invalid density: " + parts[1]);
+					return null;
+				}
+			else if (parts[0].equals("mindensity")) {
+				try {
+					myDensityMin = Integer.decode(parts[1]);
+					if (myDensityMin < 1) {
+						sender.sendMessage(ChatColor.RED + "Invalid minimum density: " + parts[1]);
+						return null;
+					}
+				} catch (final NumberFormatException e) {
+					sender.sendMessage(ChatColor.RED + "Invalid minimum density: " + parts[1]);
+					return null;
+				}
+				if (myDensityMax < myDensityMin)
+					myDensityMax = myDensityMin;
+			} else if (parts[0].equals("maxdensity")) {
+				try {
+					myDensityMax = Integer.decode(parts[1]);
+					if (myDensityMax < 1) {
+						sender.sendMessage(ChatColor.RED + "Invalid maximum density: " + parts[1]);
+						return null;
+					}
+				} catch (final NumberFormatException e) {
+					sender.sendMessage(ChatColor.RED + "Invalid maximum density: " + parts[1]);
+					return null;
+				}
+				if (myDensityMax < myDensityMin)
+					myDensityMin = myDensityMax;
+			} else if (parts[0].equals("maxdistance"))
+				try {
+					myMaxDistance = Integer.decode(parts[1]);
+					if ((myMaxDistance < 1)) {
+						sender.sendMessage(ChatColor.RED + "Invalid maximum distance: " + parts[1]);
+						return null;
+					}
+				} catch (final NumberFormatException e) {
+					sender.sendMessage(ChatColor.RED + "Invalid maximum distance: " + parts[1]);
+					return null;
+				}
+			else if (parts[0].equals("decaychance") || parts[0].equals("decay") || parts[0].equals("chance"))
+				try {
+					myDecayChance = Float.parseFloat(parts[1]);
+					if ((myDecayChance < 0.0f) || (myDecayChance > 1.0f)) {
+						sender.sendMessage(ChatColor.RED + "Invalid decay chance: " + parts[1]);
+						return null;
+					}
+				} catch (final NumberFormatException e) {
+					sender.sendMessage(ChatColor.RED + "Invalid decay chance: " + parts[1]);
+					return null;
+				}
+			else if (parts[0].equals("wind") || parts[0].equals("dir") || parts[0].equals("direction") || parts[0].equals("winddir")) {
+				if (parts[1].equals("random")) {
+					myWindFrom = null;
+					myWindTo = null;
+				} else
+					try {
+						final int p = parts[1].indexOf('-');
+						if (p == -1) {
+							myWindFrom = WindDirection.valueOf(parts[1].trim().toUpperCase());
+							myWindTo = myWindFrom;
+						} else {
+							myWindFrom = WindDirection.valueOf(parts[1].substring(0, p).trim().toUpperCase());
+							myWindTo = WindDirection.valueOf(parts[1].substring(p + 1).trim().toUpperCase());
+						}
+					} catch (final IllegalArgumentException e) {
+						sender.sendMessage(ChatColor.RED + "Invalid wind direction specification: " + parts[1]);
+						return null;
+					}
+			} else if (parts[0].equals("randomspread") || parts[0].equals("random")) {
+				if (! parts[1].trim().isEmpty())
+					myRandomSpread = Boolean.parseBoolean(parts[1].trim());
+				else {
+					sender.sendMessage(ChatColor.RED + "Invalid random spread argument: " + parts[1]);
+					return null;
+				}
+			} else if (parts[0].equals("interval")) {
+				if (parts[1].equals("default"))
+					myInterval = SmokerSettings.DEFAULT_INTERVAL;
+				else
+					try {
+						myInterval = Integer.decode(parts[1]);
+						if (myInterval < 1) {
+							sender.sendMessage(ChatColor.RED + "Invalid interval: " + parts[1]);
+							return null;
+						}
+					} catch (final NumberFormatException e) {
+						sender.sendMessage(ChatColor.RED + "Invalid interval: " + parts[1]);
+						return null;
+					}
+			} else if (parts[0].equals("gate")) {
+				try {
+					myGate = SmokerGate.valueOf(parts[1].toUpperCase());
+				} catch (final IllegalArgumentException e) {
+					sender.sendMessage(ChatColor.RED + "Invalid gate: " + parts[1] + " (valid gates: none, redstone)");
+					return null;
+				}
+			} else if (parts[0].equals("phase")) {
+				if (parts[1].equals("auto"))
+					myPhase = SmokerSettings.AUTO_PHASE;
+				else
+					try {
+						myPhase = Integer.decode(parts[1]);
+						if (myPhase < 0) {
+							sender.sendMessage(ChatColor.RED + "Invalid phase: " + parts[1]);
+							return null;
+						}
+					} catch (final NumberFormatException e) {
+						sender.sendMessage(ChatColor.RED + "Invalid phase: " + parts[1]);
+						return null;
+					}
+			} else {
+				sender.sendMessage(ChatColor.RED + "Unrecognized argument: " + args[i]);
+				return null;
+			}
+		}
+		return new SmokerSettings(mySmokeType, myDensityMin, myDensityMax, myDecayChance, myMaxDistance, myWindFrom, myWindTo, myRandomSpread, myInterval, myPhase, myGate);
+	}
+
+	private String describeSmokingBlock(SmokingBlock smokingBlock, boolean includeType) {
+		final SmokerSettings settings = smokingBlock.getSettings();
+		final StringBuilder description = new StringBuilder();
+		if (smokingBlock.isEmitter())
+			description.append("emitter: ").append(smokingBlock.getEmitterCells().size()).append(" cells, ");
+		if (includeType || (! smokingBlock.getProfileName().equals(SmokerProfile.DEFAULT_PROFILE_NAME)))
+			description.append("profile: ").append(smokingBlock.getProfileName()).append(smokingBlock.hasOverrides() ? " (with overrides)" : "").append(", ");
+		if (includeType || (settings.smokeType != smokeType))
+			description.append("type: ").append(settings.smokeType.name()).append(", ");
+		description.append("decayChance: ").append(settings.decayChance);
+		description.append(", maxDistance: ").append(settings.maxDistance);
+		if (settings.densityMin == settings.densityMax)
+			description.append(", density: ").append(settings.densityMin);
+		else {
+			description.append(", minDensity: ").append(settings.densityMin);
+			description.append(", maxDensity: ").append(settings.densityMax);
+		}
+		if (settings.fromDirection != null) {
+			if (settings.fromDirection == settings.toDirection)
+				description.append(", wind: ").append(settings.fromDirection.name());
+			else
+				description.append(", wind: ").append(settings.fromDirection.name()).append('-').append(settings.toDirection.name());
+		} else
+			description.append(", wind: random");
+		description.append(", randomSpread: ").append(settings.randomSpread);
+		description.append(", interval: ").append((settings.interval != SmokerSettings.DEFAULT_INTERVAL) ? Integer.toString(settings.interval) : ("default (" + delay + ")"));
+		if (settings.phase != SmokerSettings.AUTO_PHASE)
+			description.append(", phase: ").append(settings.phase);
+		if (settings.gate != SmokerGate.NONE)
+			description.append(", gate: ").append(settings.gate.name().toLowerCase());
+		return description.toString();
+	}
+
+	/**
+	 * Load the smoker profiles from the <code>profiles</code> section of the
+	 * config file. Settings which a profile does not specify are taken from
+	 * the defaults at the top level of the config file, which also form the
+	 * implicit <code>default</code> profile.
+	 *
+	 * @throws IllegalArgumentException If a profile is not valid.
+	 */
+	private void loadProfiles(FileConfiguration config) {
+		final Map<String, SmokerProfile> newProfiles = new HashMap<>();
+		final SmokerProfile newDefaultProfile = new SmokerProfile(SmokerProfile.DEFAULT_PROFILE_NAME, new SmokerSettings(smokeType, densityMin, densityMax, decayChance, maxDistance, windFrom, windTo, randomSpread));
+		newProfiles.put(newDefaultProfile.name, newDefaultProfile);
+		final ConfigurationSection profilesConfig = config.getConfigurationSection("profiles");
+		if (profilesConfig != null)
+			for (final String key: profilesConfig.getKeys(false)) {
+				final String name = key.toLowerCase();
+				if (name.equals(SmokerProfile.DEFAULT_PROFILE_NAME))
+					throw new IllegalArgumentException("profile name \"" + SmokerProfile.DEFAULT_PROFILE_NAME + "\" is reserved");
+				final ConfigurationSection profileConfig = profilesConfig.getConfigurationSection(key);
+				if (profileConfig == null)
+					throw new IllegalArgumentException("profile " + key + " is not a section");
+				try {
+					newProfiles.put(name, new SmokerProfile(name, readSettings(profileConfig, newDefaultProfile.settings)));
+				} catch (final IllegalArgumentException e) {
+					throw new IllegalArgumentException("profile " + key + ": " + e.getMessage(), e);
+				}
+			}
+		profiles.clear();
+		profiles.putAll(newProfiles);
+		defaultProfile = newDefaultProfile;
+	}
+
+	private static SmokerSettings readSettings(ConfigurationSection config, SmokerSettings defaults) {
+		final String smokeTypeString = config.getString("smokeType");
+		final Material mySmokeType = (smokeTypeString != null) ? Material.matchMaterial(smokeTypeString) : defaults.smokeType;
+		if (mySmokeType == null)
+			throw new IllegalArgumentException("smokeType is not valid material (" + smokeTypeString + ")");
+		int myDensityMin = config.getInt("minDensity", defaults.densityMin), myDensityMax = config.getInt("maxDensity", defaults.densityMax);
+		if (config.contains("density")) {
+			myDensityMin = config.getInt("density");
+			myDensityMax = myDensityMin;
+		}
+		final float myDecayChance = (float) config.getDouble("decayChance", defaults.decayChance);
+		final int myMaxDistance = config.getInt("maxDistance", defaults.maxDistance);
+		WindDirection myWindFrom = defaults.fromDirection, myWindTo = defaults.toDirection;
+		if (config.contains("windFrom") || config.contains("windTo")) {
+			final String fromStr = config.getString("windFrom"), toStr = config.getString("windTo");
+			myWindFrom = ((fromStr != null) && (! fromStr.trim().isEmpty())) ? WindDirection.valueOf(fromStr.trim().toUpperCase()) : null;
+			myWindTo = ((toStr != null) && (! toStr.trim().isEmpty())) ? WindDirection.valueOf(toStr.trim().toUpperCase()) : null;
+		}
+		final boolean myRandomSpread = config.getBoolean("randomSpread", defaults.randomSpread);
+		final int myInterval = config.getInt("interval", defaults.interval);
+		if (config.contains("interval") && (myInterval < 1))
+			throw new IllegalArgumentException("interval < 1");
+		final int myPhase = config.getInt("phase", defaults.phase);
+		if (config.contains("phase") && (myPhase < 0))
+			throw new IllegalArgumentException("phase < 0");
+		final String gateString = config.getString("gate");
+		final SmokerGate myGate = (gateString != null) ? SmokerGate.valueOf(gateString.trim().toUpperCase()) : defaults.gate;
+		return new SmokerSettings(mySmokeType, myDensityMin, myDensityMax, myDecayChance, myMaxDistance, myWindFrom, myWindTo, myRandomSpread, myInterval, myPhase, myGate);
+	}
+
+	/**
+	 * Get the profile with a particular name, or the default profile if it
+	 * no longer exists.
+	 */
+	private SmokerProfile resolveProfile(String name) {
+		final SmokerProfile profile = profiles.get(name);
+		if (profile != null)
+			return profile;
+		else {
+			logger.warning("[BlockySmoke] Smoker profile " + name + " no longer exists; using default profile");
+			return defaultProfile;
+		}
+	}
+
+	private void activateWorld(World world) {
+		final String worldName = world.getName();
+		logger.info("[BlockySmoke] Activating world " + worldName);
+		final SmokeWorld smokeWorld = createSmokeWorld(world);
+		final SmokeWorld previousSmokeWorld = smokeWorlds.put(worldName, smokeWorld);
+		if (previousSmokeWorld != null)
+			previousSmokeWorld.ledger.flush();
+		final Map<IntLocation, SmokingBlock> existingSmokingBlocks = allBlocks.get(worldName);
+		if (existingSmokingBlocks != null)
+			for (final SmokingBlock smokingBlock: existingSmokingBlocks.values())
+				smokeWorld.smokerAdded(smokingBlock);
+		// Read the saved smokers on a background thread. The world has no
+		// saved smokers until they are handed back to the main thread, so
+		// chunk load events in the mean time have nothing to activate, and
+		// the chunks which are loaded by then are activated all at once. The
+		// smoke ledger is replayed there too, to find smoke which was left
+		// behind by a crash
+		final Object token = new Object();
+		loadingWorlds.put(worldName, token);
+		getServer().getScheduler().runTaskAsynchronously(this, () -> {
+			final Map<IntLocation, SmokingBlock> blocks = loadBlocks(worldName);
+			final Map<IntLocation, Material> ledgerCells = smokeWorld.ledger.replay();
+			if (isEnabled())
+				getServer().getScheduler().runTask(this, () -> finishActivation(world, token, blocks, ledgerCells));
+		});
+	}
+
+	/**
+	 * Start the saved smokers of a world, once they have been loaded in the
+	 * background. Smokers which were created while the world was loading take
+	 * precedence over saved smokers at the same location. Smoke recorded in
+	 * the ledger which does not belong to any smoker was left behind by a
+	 * crash, and is removed in the background.
+	 */
+	private void finishActivation(World world, Object token, Map<IntLocation, SmokingBlock> blocks, Map<IntLocation, Material> ledgerCells) {
+		final String worldName = world.getName();
+		if (loadingWorlds.get(worldName) != token)
+			// The world was deactivated (and perhaps activated again) in the
+			// mean time
+			return;
+		loadingWorlds.remove(worldName);
+		staleSnapshotWorlds.add(worldName);
+		Map<IntLocation, SmokingBlock> smokingBlocks = allBlocks.get(worldName);
+		final boolean createdWhileLoading = smokingBlocks != null;
+		if (blocks != null) {
+			if (smokingBlocks == null) {
+				smokingBlocks = new HashMap<>();
+				allBlocks.put(worldName, smokingBlocks);
+			}
+			final Map<Long, Set<IntLocation>> chunkIndex = getChunkIndex(worldName);
+			final SmokeWorld smokeWorld = getSmokeWorld(world);
+			for (final SmokingBlock smokingBlock: blocks.values())
+				if (! smokingBlocks.containsKey(smokingBlock.location)) {
+					smokingBlock.setProfile(resolveProfile(smokingBlock.getProfileName()), null);
+					smokingBlocks.put(smokingBlock.location, smokingBlock);
+					smokeWorld.smokerAdded(smokingBlock);
+					indexSmoker(chunkIndex, smokingBlock.location);
+				}
+			for (final Chunk chunk: world.getLoadedChunks())
+				activateChunk(chunk);
+		}
+		if (smokingBlocks != null)
+			for (final SmokingBlock smokingBlock: smokingBlocks.values())
+				ledgerCells.keySet().removeAll(smokingBlock.getSmokeCells());
+		if (! ledgerCells.isEmpty()) {
+			logger.info("[BlockySmoke] Removing " + ledgerCells.size() + " cells of smoke left behind in world " + worldName + " by a crash");
+			teardown.addOrphans(getSmokeWorld(world), ledgerCells);
+		}
+		if (createdWhileLoading)
+			// Saving was deferred while loading
+			saveWorld(worldName);
+	}
+
+	private void deactivateWorld(World world) {
+		final String worldName = world.getName();
+		logger.info("[BlockySmoke] Deactivating world " + worldName);
+		if ((currentBenchmark != null) && currentBenchmark.getWorldName().equals(worldName))
+			currentBenchmark.abort();
+		teardown.flush(worldName);
+		final Map<IntLocation, SmokingBlock> blocks = allBlocks.remove(worldName);
+		if (loadingWorlds.remove(worldName) != null) {
+			// The saved smokers have not been loaded yet. If smokers were
+			// created in the mean time, read the saved ones here and save
+			// them together, or the new smokers would be lost
+			if ((blocks != null) && (! blocks.isEmpty())) {
+				final Map<IntLocation, SmokingBlock> savedBlocks = loadBlocks(worldName);
+				if (savedBlocks != null)
+					for (final SmokingBlock smokingBlock: savedBlocks.values())
+						blocks.putIfAbsent(smokingBlock.location, smokingBlock);
+				saveBlocks(worldName, blocks);
+			}
+		} else
+			saveBlocks(worldName, blocks);
+		activeBlocks.remove(worldName);
+		smokersByChunk.remove(worldName);
+		final SmokeWorld smokeWorld = smokeWorlds.remove(worldName);
+		if (smokeWorld != null)
+			smokeWorld.ledger.close();
+		pendingSourceChecks.remove(worldName);
+		pendingGateChecks.remove(worldName);
+		staleSnapshotWorlds.add(worldName);
+	}
+
+	private void activateChunk(Chunk chunk) {
+		if (logger.isLoggable(Level.FINE))
+			logger.fine("[BlockySmoke] Activating chunk @ " + chunk.getX() + ", " + chunk.getZ());
+		final String worldName = chunk.getWorld().getName();
+		final Set<IntLocation> locations = getSmokersInChunk(worldName, chunk.getX(), chunk.getZ());
+		if (locations != null) {
+			final Object event = SmokeEvents.beginChunkActivation();
+			final List<SmokingBlock> activatedBlocks = (event != null) ? new ArrayList<>(locations.size()) : null;
+			final Map<IntLocation, SmokingBlock> smokingBlocks = allBlocks.get(worldName);
+			staleSnapshotWorlds.add(worldName);
+			for (final IntLocation location: locations) {
+				if (logger.isLoggable(Level.FINE))
+					logger.fine("[BlockySmoke] Activating smoker @ " + location);
+				Map<IntLocation, SmokingBlock> activeBlocksForWorld = activeBlocks.get(worldName);
+				if (activeBlocksForWorld == null) {
+					activeBlocksForWorld = new HashMap<>();
+					activeBlocks.put(worldName, activeBlocksForWorld);
+				}
+				final SmokingBlock smokingBlock = smokingBlocks.get(location);
+				activeBlocksForWorld.put(location, smokingBlock);
+				// If we are currently paused there should be no smoke;
+				// which might still exist in the world for this smoker.
+				// Otherwise fast-forward the plume, so that it appears at
+				// once on its first tick rather than growing from the source.
+				// That is done in the background, within a budget per tick,
+				// and the smoker is scheduled once it is done
+				if (paused) {
+					smokingBlock.removeAllSmoke(getSmokeWorld(chunk.getWorld()));
+					getSmokeWorld(chunk.getWorld()).schedule.schedule(smokingBlock, runCount);
+				} else if (prewarmTicks > 0)
+					prewarm.add(getSmokeWorld(chunk.getWorld()), smokingBlock);
+				else
+					getSmokeWorld(chunk.getWorld()).schedule.schedule(smokingBlock, runCount);
+				if (activatedBlocks != null)
+					activatedBlocks.add(smokingBlock);
+
+				// The source block may have changed while the chunk was not
+				// loaded
+				addPendingSourceCheck(worldName, location);
+				if (smokingBlock.isGated())
+					addPendingGateCheck(worldName, location);
+			}
+			SmokeEvents.commitChunkActivation(event, worldName, chunk.getX(), chunk.getZ(), activatedBlocks);
+		}
+	}
+
+	/**
+	 * If a block is the source block of a smoker, schedule that smoker to
+	 * check on the next run whether its source block still exists.
+	 */
+	private void scheduleSourceCheck(Block block) {
+		final String worldName = block.getWorld().getName();
+		final Set<IntLocation> locations = getSmokersInChunk(worldName, block.getX() >> 4, block.getZ() >> 4);
+		if (locations != null) {
+			final IntLocation location = new IntLocation(block.getX(), block.getY(), block.getZ());
+			if (locations.contains(location)) {
+				if (logger.isLoggable(Level.FINE))
+					logger.fine("[BlockySmoke] Source block of smoker @ " + location + " affected by event; scheduling check");
+				addPendingSourceCheck(worldName, location);
+			}
+		}
+	}
+
+	/**
+	 * Let the smoke know that a block may no longer be air, so that it will
+	 * look before moving into it instead of assuming it is open sky.
+	 */
+	private void markBlockChanged(Block block) {
+		final SmokeWorld smokeWorld = smokeWorlds.get(block.getWorld().getName());
+		if (smokeWorld != null)
+			smokeWorld.blockChanged(block.getX(), block.getY(), block.getZ());
+	}
+
+	/**
+	 * If a block is the source block of a smoker, schedule that smoker to
+	 * check on the next run whether its source block is powered, in case it
+	 * is gated by redstone.
+	 */
+	private void scheduleGateCheck(Block block) {
+		final String worldName = block.getWorld().getName();
+		final Set<IntLocation> locations = getSmokersInChunk(worldName, block.getX() >> 4, block.getZ() >> 4);
+		if (locations != null) {
+			final IntLocation location = new IntLocation(block.getX(), block.getY(), block.getZ());
+			if (locations.contains(location))
+				addPendingGateCheck(worldName, location);
+		}
+	}
+
+	private void addPendingGateCheck(String worldName, IntLocation location) {
+		Set<IntLocation> locations = pendingGateChecks.get(worldName);
+		if (locations == null) {
+			locations = new HashSet<>();
+			pendingGateChecks.put(worldName, locations);
+		}
+		locations.add(location);
+	}
+
+	private void addPendingSourceCheck(String worldName, IntLocation location) {
+		Set<IntLocation> locations = pendingSourceChecks.get(worldName);
+		if (locations == null) {
+			locations = new HashSet<>();
+			pendingSourceChecks.put(worldName, locations);
+		}
+		locations.add(location);
+	}
+
+	private SmokeWorld getSmokeWorld(World world) {
+		final String worldName = world.getName();
+		SmokeWorld smokeWorld = smokeWorlds.get(worldName);
+		if (smokeWorld == null) {
+			smokeWorld = createSmokeWorld(world);
+			smokeWorlds.put(worldName, smokeWorld);
+		}
+		return smokeWorld;
+	}
+
+	private SmokeWorld createSmokeWorld(World world) {
+		final String worldName = world.getName();
+		final File ledgerDir = new File(new File(getDataFolder(), "ledger"), sanitizeFilename(worldName));
+		return new SmokeWorld(world, createWindModel(worldName), delay, new SmokeLedger(this, ledgerDir));
+	}
+
+	/**
+	 * Create the wind model for a world, using the settings from the
+	 * <code>worlds.<em>worldName</em>.wind</code> section of the config file
+	 * if it exists, and the global wind strength otherwise.
+	 */
+	private WindModel createWindModel(String worldName) {
+		final ConfigurationSection windConfig = getConfig().getConfigurationSection("worlds." + worldName + ".wind");
+		if (windConfig != null)
+			try {
+				final int myMinWindStrength = windConfig.getInt("minStrength", minWindStrength);
+				final int myMaxWindStrength = windConfig.getInt("maxStrength", maxWindStrength);
+				final String fromStr = windConfig.getString("from"), toStr = windConfig.getString("to");
+				final WindDirection myWindFrom = ((fromStr != null) && (! fromStr.trim().isEmpty())) ? WindDirection.valueOf(fromStr.trim().toUpperCase()) : null;
+				final WindDirection myWindTo = ((toStr != null) && (! toStr.trim().isEmpty())) ? WindDirection.valueOf(toStr.trim().toUpperCase()) : null;
+				final WindModel windModel = new WindModel(myMinWindStrength, myMaxWindStrength, myWindFrom, myWindTo, new Random());
+				logger.info("[BlockySmoke] Wind for world " + worldName + ": " + windModel);
+				return windModel;
+			} catch (final IllegalArgumentException e) {
+				logger.severe("[BlockySmoke] Invalid wind settings for world " + worldName + " (" + e.getMessage() + "); using default wind settings");
+			}
+		return new WindModel(minWindStrength, maxWindStrength, null, null, new Random());
+	}
+
+	private Map<Long, Set<IntLocation>> getChunkIndex(String worldName) {
+		Map<Long, Set<IntLocation>> chunkIndex = smokersByChunk.get(worldName);
+		if (chunkIndex == null) {
+			chunkIndex = new HashMap<>();
+			smokersByChunk.put(worldName, chunkIndex);
+		}
+		return chunkIndex;
+	}
+
+	private Set<IntLocation> getSmokersInChunk(String worldName, int chunkX, int chunkZ) {
+		final Map<Long, Set<IntLocation>> chunkIndex = smokersByChunk.get(worldName);
+		return (chunkIndex != null) ? chunkIndex.get(IntLocation.chunkKey(chunkX, chunkZ)) : null;
+	}
+
+	private static void indexSmoker(Map<Long, Set<IntLocation>> chunkIndex, IntLocation location) {
+		final long chunkKey = location.getChunkKey();
+		Set<IntLocation> locations = chunkIndex.get(chunkKey);
+		if (locations == null) {
+			locations = new HashSet<>();
+			chunkIndex.put(chunkKey, locations);
+		}
+		locations.add(location);
+	}
+
+	private static void unindexSmoker(Map<Long, Set<IntLocation>> chunkIndex, IntLocation location) {
+		if (chunkIndex != null) {
+			final long chunkKey = location.getChunkKey();
+			final Set<IntLocation> locations = chunkIndex.get(chunkKey);
+			if ((locations != null) && locations.remove(location) && locations.isEmpty())
+				chunkIndex.remove(chunkKey);
+		}
+	}
+
+	/**
+	 * Remove the bookkeeping for a world if it has no (active) smokers left.
+	 */
+	private void cleanUpWorld(String worldName) {
+		final Map<IntLocation, SmokingBlock> myActiveBlocks = activeBlocks.get(worldName);
+		if ((myActiveBlocks != null) && myActiveBlocks.isEmpty())
+			activeBlocks.remove(worldName);
+		final Map<IntLocation, SmokingBlock> smokingBlocks = allBlocks.get(worldName);
+		if ((smokingBlocks != null) && smokingBlocks.isEmpty()) {
+			allBlocks.remove(worldName);
+			smokersByChunk.remove(worldName);
+		}
+	}
+
+	/**
+	 * Load the saved smokers of a world. Does not resolve their profiles.
+	 * Invoked on a background thread.
+	 */
+	@SuppressWarnings("unchecked") // Guaranteed by Java
+	private Map<IntLocation, SmokingBlock> loadBlocks(String worldName) {
 		if (logger.isLoggable(Level.FINE))
 			logger.fine("[BlockySmoke] Loading blocks for world " + worldName);
 		final File configDir = getDataFolder();
 		final File blocksFile = new File(configDir, "smokeblocks_" + sanitizeFilename(worldName) + ".bin");
 		if (blocksFile.isFile())
 			try {
+				final Object event = SmokeEvents.beginPersistence();
 				final ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new FileInputStream(blocksFile)));
 				try {
 					final Map<IntLocation, SmokingBlock> blocks = (Map<IntLocation, SmokingBlock>) in.readObject();
 					logger.info("[BlockySmoke] Loaded " + blocks.size() + " blocky smokers for world " + worldName);
+					SmokeEvents.commitPersistence(event, worldName, false, blocks.values());
 					return blocks;
 				} finally {
 					in.close();
@@ -629,19 +1958,28 @@ public final class BlockySmokePlugin extends JavaPlugin implements Listener {
 	}
 
 	private void saveBlocks(String worldName, Map<IntLocation, SmokingBlock> blocks) {
-		logger.info("[BlockySmoke] Saving " + blocks.size() + " blocky smokers for world " + worldName);
+		if (loadingWorlds.containsKey(worldName)) {
+			// The saved smokers have not been loaded yet; saving now would
+			// overwrite them
+			if (logger.isLoggable(Level.FINE))
+				logger.fine("[BlockySmoke] Not saving blocky smokers for world " + worldName + " while they are being loaded");
+			return;
+		}
+		logger.info("[BlockySmoke] Saving " + ((blocks != null) ? blocks.size() : 0) + " blocky smokers for world " + worldName);
 		final File configDir = getDataFolder();
 		if (! configDir.isDirectory())
 			configDir.mkdirs();
 		final File blocksFile = new File(configDir, "smokeblocks_" + sanitizeFilename(worldName) + ".bin");
 		if ((blocks != null) && (! blocks.isEmpty()))
 			try {
+				final Object event = SmokeEvents.beginPersistence();
 				final ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(blocksFile)));
 				try {
 					out.writeObject(blocks);
 				} finally {
 					out.close();
 				}
+				SmokeEvents.commitPersistence(event, worldName, true, blocks.values());
 			} catch (final IOException e) {
 				logger.log(Level.SEVERE, "[BlockySmoke] I/O error while saving smoke blocks; smoke block data not saved!", e);
 			}
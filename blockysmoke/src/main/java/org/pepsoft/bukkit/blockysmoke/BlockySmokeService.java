@@ -0,0 +1,118 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.bukkit.World;
+
+/**
+ * The programmatic API of the BlockySmoke plugin, for use by other plugins.
+ * Obtain it from Bukkit's {@link org.bukkit.plugin.ServicesManager}. All
+ * operations work on batches of locations, and update the smoker index and
+ * the saved smoker data once per call rather than once per smoker.
+ *
+ * <p>The service may only be invoked from the main server thread, with the
+ * exception of {@link #getSnapshot()}.
+ *
+ * @author Pepijn Schmitz
+ */
+public interface BlockySmokeService {
+	/**
+	 * Get the default smoker settings, as configured in the plugin's config
+	 * file.
+	 *
+	 * @return The default smoker settings.
+	 */
+	SmokerSettings getDefaultSettings();
+
+	/**
+	 * Get a smoker profile, as defined in the plugin's config file.
+	 *
+	 * @param name The name of the profile.
+	 * @return The profile, or <code>null</code> if there is no such profile.
+	 */
+	SmokerProfile getProfile(String name);
+
+	/**
+	 * Create or replace blocky smokers at a number of locations. Locations
+	 * where the block is air or smoke are skipped.
+	 *
+	 * @param world The world in which to create the smokers.
+	 * @param locations The locations of the source blocks.
+	 * @param settings The settings to give all the new smokers.
+	 * @return The number of smokers created or replaced.
+	 */
+	int createSmokers(World world, Collection<IntLocation> locations, SmokerSettings settings);
+
+	/**
+	 * Create or replace blocky smokers at a number of locations, using a
+	 * smoker profile. The smokers will follow any changes to the profile.
+	 * Locations where the block is air or smoke are skipped.
+	 *
+	 * @param world The world in which to create the smokers.
+	 * @param locations The locations of the source blocks.
+	 * @param profile The profile to give all the new smokers.
+	 * @return The number of smokers created or replaced.
+	 */
+	int createSmokers(World world, Collection<IntLocation> locations, SmokerProfile profile);
+
+	/**
+	 * Remove the blocky smokers at a number of locations, together with
+	 * their smoke. Locations where there is no smoker are skipped.
+	 *
+	 * @param world The world from which to remove the smokers.
+	 * @param locations The locations of the smokers to remove.
+	 * @return The number of smokers removed.
+	 */
+	int removeSmokers(World world, Collection<IntLocation> locations);
+
+	/**
+	 * Find out which of a number of locations are blocky smokers, and with
+	 * which settings.
+	 *
+	 * @param world The world to query.
+	 * @param locations The locations to query.
+	 * @return The settings of the smokers found, by location. Locations where
+	 * there is no smoker are absent.
+	 */
+	Map<IntLocation, SmokerSettings> query(World world, Collection<IntLocation> locations);
+
+	/**
+	 * Find out whether a block contains smoke placed by a blocky smoker. Does
+	 * not read the world, and takes constant time, so it is cheap enough to
+	 * invoke from any block event listener.
+	 *
+	 * @param world The world of the block.
+	 * @param x The X coordinate of the block.
+	 * @param y The Y coordinate of the block.
+	 * @param z The Z coordinate of the block.
+	 * @return <code>true</code> if the block contains smoke.
+	 */
+	boolean isSmoke(World world, int x, int y, int z);
+
+	/**
+	 * Get the most recent snapshot of all blocky smokers and the extents of
+	 * their plumes, which is published once per server tick. Unlike the
+	 * other operations this may be invoked from any thread, and does not
+	 * block or affect the smokers.
+	 *
+	 * @return The most recent snapshot of all blocky smokers.
+	 */
+	SmokeSnapshot getSnapshot();
+}
@@ -0,0 +1,90 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.bukkit.World;
+
+/**
+ * The {@link BlockySmokeService} provider registered by the BlockySmoke
+ * plugin.
+ *
+ * @author Pepijn Schmitz
+ */
+final class BlockySmokeServiceImpl implements BlockySmokeService {
+	BlockySmokeServiceImpl(BlockySmokePlugin plugin) {
+		this.plugin = plugin;
+	}
+
+	@Override
+	public SmokerSettings getDefaultSettings() {
+		return plugin.getDefaultSettings();
+	}
+
+	@Override
+	public SmokerProfile getProfile(String name) {
+		return plugin.getProfile(name);
+	}
+
+	@Override
+	public int createSmokers(World world, Collection<IntLocation> locations, SmokerSettings settings) {
+		checkThread();
+		if (settings == null)
+			throw new IllegalArgumentException("settings == null");
+		return plugin.createSmokers(world, locations, plugin.getProfile(SmokerProfile.DEFAULT_PROFILE_NAME), settings);
+	}
+
+	@Override
+	public int createSmokers(World world, Collection<IntLocation> locations, SmokerProfile profile) {
+		checkThread();
+		if (profile == null)
+			throw new IllegalArgumentException("profile == null");
+		return plugin.createSmokers(world, locations, profile, profile.settings);
+	}
+
+	@Override
+	public int removeSmokers(World world, Collection<IntLocation> locations) {
+		checkThread();
+		return plugin.removeSmokers(world, locations);
+	}
+
+	@Override
+	public Map<IntLocation, SmokerSettings> query(World world, Collection<IntLocation> locations) {
+		checkThread();
+		return plugin.querySmokers(world, locations);
+	}
+
+	@Override
+	public boolean isSmoke(World world, int x, int y, int z) {
+		checkThread();
+		return plugin.isSmoke(world, x, y, z);
+	}
+
+	@Override
+	public SmokeSnapshot getSnapshot() {
+		return plugin.getSnapshot();
+	}
+
+	private void checkThread() {
+		if (! plugin.getServer().isPrimaryThread())
+			throw new IllegalStateException("The BlockySmoke service may only be invoked from the main server thread");
+	}
+
+	private final BlockySmokePlugin plugin;
+}
@@ -0,0 +1,132 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The shapes of emitters: smokers which spawn smoke from a number of cells.
+ * Shapes are specified relative to the location of the smoker, in one of
+ * the following forms:
+ *
+ * <dl>
+ * <dt><code>box:<em>dx</em>,<em>dy</em>,<em>dz</em></code></dt>
+ * <dd>All cells of the box between the location and the location plus the
+ * offset, inclusive.</dd>
+ * <dt><code>line:<em>dx</em>,<em>dy</em>,<em>dz</em></code></dt>
+ * <dd>The cells of a straight line from the location to the location plus
+ * the offset, inclusive.</dd>
+ * <dt><code>list:<em>dx</em>,<em>dy</em>,<em>dz</em>;<em>dx</em>,<em>dy</em>,<em>dz</em>;...</code></dt>
+ * <dd>The listed cells.</dd>
+ * </dl>
+ *
+ * @author Pepijn Schmitz
+ */
+final class EmitterShapes {
+	private EmitterShapes() {
+		// Prevent instantiation
+	}
+
+	/**
+	 * Determine the cells of an emitter.
+	 *
+	 * @param spec The specification of the shape.
+	 * @param location The location of the smoker.
+	 * @return The cells of the emitter.
+	 * @throws IllegalArgumentException If the specification is not valid or
+	 * the shape is too large.
+	 */
+	static List<IntLocation> parse(String spec, IntLocation location) {
+		final int p = spec.indexOf(':');
+		if (p == -1)
+			throw new IllegalArgumentException("Emitter shape must be of the form box:dx,dy,dz, line:dx,dy,dz or list:dx,dy,dz;...");
+		final String shape = spec.substring(0, p).trim().toLowerCase(), arguments = spec.substring(p + 1).trim();
+		final Set<IntLocation> cells = new LinkedHashSet<>();
+		if (shape.equals("box")) {
+			final int[] offset = parseOffset(arguments);
+			if ((long) (Math.abs(offset[0]) + 1) * (Math.abs(offset[1]) + 1) * (Math.abs(offset[2]) + 1) > MAX_CELLS)
+				throw new IllegalArgumentException("Emitter has more than " + MAX_CELLS + " cells");
+			for (int dx = Math.min(offset[0], 0); dx <= Math.max(offset[0], 0); dx++)
+				for (int dy = Math.min(offset[1], 0); dy <= Math.max(offset[1], 0); dy++)
+					for (int dz = Math.min(offset[2], 0); dz <= Math.max(offset[2], 0); dz++)
+						cells.add(new IntLocation(location.x + dx, location.y + dy, location.z + dz));
+		} else if (shape.equals("line")) {
+			final int[] offset = parseOffset(arguments);
+			final int steps = Math.max(Math.abs(offset[0]), Math.max(Math.abs(offset[1]), Math.abs(offset[2])));
+			for (int i = 0; i <= steps; i++)
+				cells.add(new IntLocation(location.x + step(offset[0], i, steps), location.y + step(offset[1], i, steps), location.z + step(offset[2], i, steps)));
+		} else if (shape.equals("list")) {
+			for (final String cell: arguments.split(";"))
+				if (! cell.trim().isEmpty()) {
+					final int[] offset = parseOffset(cell);
+					cells.add(new IntLocation(location.x + offset[0], location.y + offset[1], location.z + offset[2]));
+				}
+		} else
+			throw new IllegalArgumentException("Unknown emitter shape: " + shape);
+		if (cells.isEmpty())
+			throw new IllegalArgumentException("Emitter has no cells");
+		else if (cells.size() > MAX_CELLS)
+			throw new IllegalArgumentException("Emitter has more than " + MAX_CELLS + " cells");
+		return new ArrayList<>(cells);
+	}
+
+	/**
+	 * Create the specification of an emitter as a list of cells.
+	 *
+	 * @param cells The cells of the emitter.
+	 * @param location The location of the smoker.
+	 * @return A specification which {@link #parse(String, IntLocation)} turns
+	 * into the same cells.
+	 */
+	static String toSpec(List<IntLocation> cells, IntLocation location) {
+		final StringBuilder sb = new StringBuilder("list:");
+		for (final IntLocation cell: cells) {
+			if (sb.length() > 5)
+				sb.append(';');
+			sb.append(cell.x - location.x).append(',').append(cell.y - location.y).append(',').append(cell.z - location.z);
+		}
+		return sb.toString();
+	}
+
+	private static int[] parseOffset(String str) {
+		final String[] parts = str.split(",");
+		if (parts.length != 3)
+			throw new IllegalArgumentException("Invalid offset: " + str);
+		final int[] offset = new int[3];
+		for (int i = 0; i < 3; i++) {
+			offset[i] = Integer.parseInt(parts[i].trim());
+			if (Math.abs(offset[i]) > MAX_EXTENT)
+				throw new IllegalArgumentException("Offset more than " + MAX_EXTENT + " blocks: " + str);
+		}
+		return offset;
+	}
+
+	private static int step(int delta, int i, int steps) {
+		return (steps > 0) ? Math.round((float) delta * i / steps) : 0;
+	}
+
+	/**
+	 * The largest distance from the location of the smoker to a cell of the
+	 * emitter along any axis.
+	 */
+	private static final int MAX_EXTENT = 64;
+
+	private static final int MAX_CELLS = 4096;
+}
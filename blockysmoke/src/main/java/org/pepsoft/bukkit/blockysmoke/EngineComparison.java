@@ -0,0 +1,174 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.bukkit.Material;
+
+/**
+ * Runs the {@link ReferenceEngine} and another {@link SmokeEngine} side by
+ * side, each in its own {@link InMemoryWorld} with the same smokers, seeds
+ * and wind, and compares the statistics of their plumes and their
+ * throughput.
+ *
+ * <p>The engines do not visit the particles in the same order, so they do
+ * not consume their random numbers in the same order either, and the plumes
+ * can only be expected to be statistically the same, not identical. Run
+ * enough smokers for enough ticks for the statistics to be meaningful.
+ *
+ * @author Pepijn Schmitz
+ */
+final class EngineComparison {
+	/**
+	 * @param engine The engine to compare with the reference engine.
+	 * @param settings The settings of the smokers.
+	 * @param minWindStrength The minimum wind strength.
+	 * @param maxWindStrength The maximum wind strength.
+	 * @param smokers The number of smokers to run.
+	 * @param ticks The number of ticks to run the smokers for.
+	 * @param seed The seed from which all randomness is derived.
+	 */
+	EngineComparison(SmokeEngine engine, SmokerSettings settings, int minWindStrength, int maxWindStrength, int smokers, int ticks, long seed) {
+		this.engine = engine;
+		this.settings = settings;
+		this.minWindStrength = minWindStrength;
+		this.maxWindStrength = maxWindStrength;
+		this.smokers = smokers;
+		this.ticks = ticks;
+		this.seed = seed;
+	}
+
+	/**
+	 * Run both engines and compare them. May be invoked on any thread, since
+	 * the engines only touch their own in-memory worlds.
+	 *
+	 * @return The report, as a list of lines of text.
+	 */
+	List<String> run() {
+		final Statistics reference = simulate(new ReferenceEngine()), optimised = simulate(engine);
+		final List<String> report = new ArrayList<>();
+		report.add("Comparison of the " + engine + " engine with the reference engine; " + smokers + " smokers, " + ticks + " ticks, seed " + seed + ":");
+		report.add(String.format("  %-22s %12s %12s %8s", "", "reference", engine, "diff"));
+		compare(report, "Particles (mean)", reference.totalParticles / (double) ticks, optimised.totalParticles / (double) ticks);
+		compare(report, "Particles (peak)", reference.peakParticles, optimised.peakParticles);
+		compare(report, "Height (mean)", reference.heightSum / (double) reference.samples, optimised.heightSum / (double) optimised.samples);
+		compare(report, "Height (p50)", reference.heightPercentile(50), optimised.heightPercentile(50));
+		compare(report, "Height (p90)", reference.heightPercentile(90), optimised.heightPercentile(90));
+		compare(report, "Spread (mean)", reference.spreadSum / reference.samples, optimised.spreadSum / optimised.samples);
+		compare(report, "Spread (max)", reference.maxSpread, optimised.maxSpread);
+		compare(report, "Occupied cells (mean)", reference.totalCells / (double) ticks, optimised.totalCells / (double) ticks);
+		compare(report, "Smoke blocks (final)", reference.smokeBlocks, optimised.smokeBlocks);
+		report.add(String.format("  Throughput: reference %.3f ms/tick, %s %.3f ms/tick; %s engine is %.2fx the speed of the reference engine",
+				reference.nanos / 1000000.0 / ticks, engine, optimised.nanos / 1000000.0 / ticks, engine, reference.nanos / (double) Math.max(optimised.nanos, 1)));
+		return report;
+	}
+
+	private Statistics simulate(SmokeEngine engine) {
+		final InMemoryWorld blocks = new InMemoryWorld(WORLD_HEIGHT, GROUND_LEVEL);
+		final SmokeWorld smokeWorld = new SmokeWorld(blocks, new WindModel(minWindStrength, maxWindStrength, null, null, new Random(seed)), 1);
+		final int side = (int) Math.ceil(Math.sqrt(smokers)), spacing = settings.maxDistance * 2 + 1;
+		for (int i = 0; i < smokers; i++) {
+			final IntLocation location = new IntLocation((i % side) * spacing, GROUND_LEVEL + 1, (i / side) * spacing);
+			blocks.setType(location.x, location.y, location.z, Material.STONE);
+			engine.addSmoker(location, settings, seed + i);
+		}
+
+		final Statistics statistics = new Statistics();
+		final Set<IntLocation> occupiedCells = new HashSet<>();
+		for (int tick = 0; tick < ticks; tick++) {
+			final long start = System.nanoTime();
+			engine.tick(smokeWorld);
+			statistics.nanos += System.nanoTime() - start;
+			smokeWorld.wind.tick();
+
+			final long samplesBefore = statistics.samples;
+			engine.visitParticles((source, particle) -> {
+				final int height = particle.y - source.y;
+				final double spread = Math.sqrt((particle.x - source.x) * (particle.x - source.x) + (particle.z - source.z) * (particle.z - source.z));
+				statistics.samples++;
+				statistics.heightSum += height;
+				if ((height >= 0) && (height < statistics.heightCounts.length))
+					statistics.heightCounts[height]++;
+				statistics.spreadSum += spread;
+				statistics.maxSpread = Math.max(statistics.maxSpread, spread);
+				occupiedCells.add(particle);
+			});
+			final long particles = statistics.samples - samplesBefore;
+			statistics.totalParticles += particles;
+			statistics.peakParticles = Math.max(statistics.peakParticles, particles);
+			statistics.totalCells += occupiedCells.size();
+			occupiedCells.clear();
+		}
+		statistics.smokeBlocks = blocks.count(settings.smokeType);
+		return statistics;
+	}
+
+	private static void compare(List<String> report, String metric, double reference, double optimised) {
+		final String difference;
+		if (reference != 0)
+			difference = String.format("%+.1f%%", (optimised - reference) / reference * 100);
+		else
+			difference = (optimised == 0) ? "+0.0%" : "n/a";
+		report.add(String.format("  %-22s %12.2f %12.2f %8s", metric, reference, optimised, difference));
+	}
+
+	/**
+	 * Compare the default engine with the reference engine, using the
+	 * default settings from config.yml. Usage: {@code EngineComparison
+	 * [smokers] [ticks] [seed]}.
+	 */
+	public static void main(String[] args) {
+		final int smokers = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_SMOKERS;
+		final int ticks = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_TICKS;
+		final long seed = (args.length > 2) ? Long.parseLong(args[2]) : DEFAULT_SEED;
+		final SmokerSettings settings = new SmokerSettings(Material.WEB, 1, 1, 0.1f, 20, null, null, false);
+		for (final String line: new EngineComparison(new SmokingBlockEngine(), settings, 0, 1, smokers, ticks, seed).run())
+			System.out.println(line);
+	}
+
+	private final SmokeEngine engine;
+	private final SmokerSettings settings;
+	private final int minWindStrength, maxWindStrength, smokers, ticks;
+	private final long seed;
+
+	static final int DEFAULT_SMOKERS = 100, DEFAULT_TICKS = 500;
+	static final long DEFAULT_SEED = 0L;
+	private static final int WORLD_HEIGHT = 256, GROUND_LEVEL = 63;
+
+	private static final class Statistics {
+		double heightPercentile(int percentile) {
+			final long threshold = (long) Math.ceil(samples * percentile / 100.0);
+			long cumulative = 0;
+			for (int height = 0; height < heightCounts.length; height++) {
+				cumulative += heightCounts[height];
+				if (cumulative >= threshold)
+					return height;
+			}
+			return heightCounts.length;
+		}
+
+		final long[] heightCounts = new long[WORLD_HEIGHT];
+		long samples, totalParticles, peakParticles, totalCells, nanos;
+		int smokeBlocks;
+		double heightSum, spreadSum, maxSpread;
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bukkit.Material;
+
+/**
+ * A world which only exists in memory, for running the smoke engines without
+ * a server. It consists of stone up to and including a ground level, and air
+ * above it, plus any blocks which have been set.
+ *
+ * @author Pepijn Schmitz
+ */
+final class InMemoryWorld implements BlockAccess {
+	InMemoryWorld(int maxHeight, int groundLevel) {
+		this.maxHeight = maxHeight;
+		this.groundLevel = groundLevel;
+	}
+
+	@Override
+	public Material getType(int x, int y, int z) {
+		final Material type = blocks.get(new IntLocation(x, y, z));
+		return (type != null) ? type : ((y <= groundLevel) ? Material.STONE : Material.AIR);
+	}
+
+	@Override
+	public void setType(int x, int y, int z, Material type) {
+		blocks.put(new IntLocation(x, y, z), type);
+		if (type != Material.AIR) {
+			final long chunkKey = IntLocation.chunkKey(x >> 4, z >> 4);
+			int[] heights = clearHeights.get(chunkKey);
+			if (heights == null) {
+				heights = new int[256];
+				Arrays.fill(heights, groundLevel + 1);
+				clearHeights.put(chunkKey, heights);
+			}
+			final int index = ((z & 0xf) << 4) | (x & 0xf);
+			heights[index] = Math.max(heights[index], y + 1);
+		}
+	}
+
+	@Override
+	public int getMaxHeight() {
+		return maxHeight;
+	}
+
+	@Override
+	public void getClearHeights(int chunkX, int chunkZ, int[] heights) {
+		final int[] chunkHeights = clearHeights.get(IntLocation.chunkKey(chunkX, chunkZ));
+		if (chunkHeights != null)
+			System.arraycopy(chunkHeights, 0, heights, 0, 256);
+		else
+			Arrays.fill(heights, groundLevel + 1);
+	}
+
+	/**
+	 * Count the blocks of a particular type which have been set.
+	 */
+	int count(Material type) {
+		int count = 0;
+		for (final Material blockType: blocks.values())
+			if (blockType == type)
+				count++;
+		return count;
+	}
+
+	private final int maxHeight, groundLevel;
+	private final Map<IntLocation, Material> blocks = new HashMap<>();
+	/**
+	 * Per chunk, the height from which each column contains only air. Only
+	 * raised, never lowered, which is good enough for the smoke.
+	 */
+	private final Map<Long, int[]> clearHeights = new HashMap<>();
+}
@@ -30,6 +30,16 @@ public final class IntLocation implements Serializable {
         this.z = z;
     }
 
+    /**
+     * Get the key of the chunk containing this location, as returned by
+     * {@link #chunkKey(int, int)}.
+     *
+     * @return The key of the chunk containing this location.
+     */
+    public long getChunkKey() {
+        return chunkKey(x >> 4, z >> 4);
+    }
+
     @Override
     public int hashCode() {
         int hash = 3;
@@ -65,6 +75,17 @@ public final class IntLocation implements Serializable {
         return x + ", " + y + ", " + z;
     }
     
+    /**
+     * Pack chunk coordinates into a single long, for use as a map key.
+     *
+     * @param chunkX The X coordinate of the chunk.
+     * @param chunkZ The Z coordinate of the chunk.
+     * @return The packed chunk coordinates.
+     */
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xffffffffL);
+    }
+
     public final int x, y, z;
 
     private static final long serialVersionUID = 1L;
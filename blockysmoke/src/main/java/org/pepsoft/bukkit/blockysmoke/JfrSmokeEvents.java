@@ -0,0 +1,176 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import java.util.Collection;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The Java Flight Recorder events of the smoke. Only ever loaded through
+ * {@link SmokeEvents}, once it has established that the flight recorder is
+ * available.
+ *
+ * @author Pepijn Schmitz
+ */
+final class JfrSmokeEvents {
+	private JfrSmokeEvents() {
+		// Prevent instantiation
+	}
+
+	static Object beginTick(SmokeWorld smokeWorld) {
+		final TickEvent event = new TickEvent();
+		event.readsBefore = smokeWorld.blockReads;
+		event.writesBefore = smokeWorld.blockWrites;
+		smokeWorld.timePhases = true;
+		smokeWorld.spawnTime = 0;
+		smokeWorld.propagateTime = 0;
+		smokeWorld.reconcileTime = 0;
+		smokeWorld.smokersTicked = 0;
+		smokeWorld.particlesTicked = 0;
+		event.begin();
+		return event;
+	}
+
+	static void commitTick(Object event, SmokeWorld smokeWorld) {
+		final TickEvent tickEvent = (TickEvent) event;
+		tickEvent.end();
+		smokeWorld.timePhases = false;
+		if ((smokeWorld.smokersTicked > 0) && tickEvent.shouldCommit()) {
+			tickEvent.world = (smokeWorld.world != null) ? smokeWorld.world.getName() : null;
+			tickEvent.smokers = smokeWorld.smokersTicked;
+			tickEvent.particles = smokeWorld.particlesTicked;
+			tickEvent.blockReads = smokeWorld.blockReads - tickEvent.readsBefore;
+			tickEvent.blockWrites = smokeWorld.blockWrites - tickEvent.writesBefore;
+			tickEvent.spawnTime = smokeWorld.spawnTime;
+			tickEvent.propagateTime = smokeWorld.propagateTime;
+			tickEvent.reconcileTime = smokeWorld.reconcileTime;
+			tickEvent.commit();
+		}
+	}
+
+	static Object beginChunkActivation() {
+		final ChunkActivationEvent event = new ChunkActivationEvent();
+		event.begin();
+		return event;
+	}
+
+	static void commitChunkActivation(Object event, String worldName, int chunkX, int chunkZ, Collection<SmokingBlock> smokingBlocks) {
+		final ChunkActivationEvent chunkActivationEvent = (ChunkActivationEvent) event;
+		chunkActivationEvent.end();
+		if (chunkActivationEvent.shouldCommit()) {
+			chunkActivationEvent.world = worldName;
+			chunkActivationEvent.chunkX = chunkX;
+			chunkActivationEvent.chunkZ = chunkZ;
+			chunkActivationEvent.smokers = smokingBlocks.size();
+			chunkActivationEvent.particles = countParticles(smokingBlocks);
+			chunkActivationEvent.commit();
+		}
+	}
+
+	static Object beginPersistence() {
+		final PersistenceEvent event = new PersistenceEvent();
+		event.begin();
+		return event;
+	}
+
+	static void commitPersistence(Object event, String worldName, boolean save, Collection<SmokingBlock> smokingBlocks) {
+		final PersistenceEvent persistenceEvent = (PersistenceEvent) event;
+		persistenceEvent.end();
+		if (persistenceEvent.shouldCommit()) {
+			persistenceEvent.world = worldName;
+			persistenceEvent.operation = save ? "save" : "load";
+			if (smokingBlocks != null) {
+				persistenceEvent.smokers = smokingBlocks.size();
+				persistenceEvent.particles = countParticles(smokingBlocks);
+			}
+			persistenceEvent.commit();
+		}
+	}
+
+	private static long countParticles(Collection<SmokingBlock> smokingBlocks) {
+		long count = 0;
+		for (final SmokingBlock smokingBlock: smokingBlocks)
+			count += smokingBlock.getParticleCount();
+		return count;
+	}
+
+	@Name("org.pepsoft.blockysmoke.Tick")
+	@Label("Smoke Tick")
+	@Category("BlockySmoke")
+	@Description("The smokers of a world which were due on a server tick. Since each smoker goes through all phases in turn, the phases are reported as the total time spent in each")
+	static final class TickEvent extends Event {
+		@Label("World")
+		String world;
+		@Label("Smokers")
+		int smokers;
+		@Label("Particles")
+		long particles;
+		@Label("Block Reads")
+		long blockReads;
+		@Label("Block Writes")
+		long blockWrites;
+		@Label("Spawn Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long spawnTime;
+		@Label("Propagate Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long propagateTime;
+		@Label("Reconcile Time")
+		@Description("The time spent updating the world to match the smoke")
+		@Timespan(Timespan.NANOSECONDS)
+		long reconcileTime;
+		transient long readsBefore, writesBefore;
+	}
+
+	@Name("org.pepsoft.blockysmoke.ChunkActivation")
+	@Label("Smoke Chunk Activation")
+	@Category("BlockySmoke")
+	@Description("The smokers in a chunk which was loaded were activated")
+	static final class ChunkActivationEvent extends Event {
+		@Label("World")
+		String world;
+		@Label("Chunk X")
+		int chunkX;
+		@Label("Chunk Z")
+		int chunkZ;
+		@Label("Smokers")
+		int smokers;
+		@Label("Particles")
+		long particles;
+	}
+
+	@Name("org.pepsoft.blockysmoke.Persistence")
+	@Label("Smoke Save/Load")
+	@Category("BlockySmoke")
+	@Description("The smokers of a world were saved or loaded")
+	static final class PersistenceEvent extends Event {
+		@Label("World")
+		String world;
+		@Label("Operation")
+		String operation;
+		@Label("Smokers")
+		int smokers;
+		@Label("Particles")
+		long particles;
+	}
+}
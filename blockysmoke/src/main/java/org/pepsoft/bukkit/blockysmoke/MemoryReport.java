@@ -0,0 +1,208 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An estimate of the memory retained by the blocky smokers, broken down by
+ * world and by structure. The estimate is computed from the element counts
+ * which the collections keep themselves and the running totals of the
+ * {@link SmokeWorld}s, multiplied by the approximate size of one element on
+ * a 64-bit JVM with compressed references, so the object graph is never
+ * walked, and the smokers are only visited to find the largest ones. Must be
+ * created on the main server thread.
+ *
+ * @author Pepijn Schmitz
+ */
+final class MemoryReport {
+	/**
+	 * Create a memory report.
+	 *
+	 * @param topCount The number of largest smokers to report. If this is
+	 *     zero the smokers are not visited at all.
+	 */
+	MemoryReport(Map<String, Map<IntLocation, SmokingBlock>> allBlocks, Map<String, Map<IntLocation, SmokingBlock>> activeBlocks, Map<String, Map<Long, Set<IntLocation>>> smokersByChunk, Map<String, SmokeWorld> smokeWorlds, int topCount) {
+		final Comparator<SmokerFootprint> bySize = Comparator.comparingLong(footprint -> footprint.bytes);
+		final PriorityQueue<SmokerFootprint> largest = new PriorityQueue<>(topCount + 1, bySize);
+		for (final Map.Entry<String, Map<IntLocation, SmokingBlock>> entry: allBlocks.entrySet()) {
+			final String worldName = entry.getKey();
+			final int smokerCount = entry.getValue().size();
+			final Map<Structure, Long> worldBytes = new EnumMap<>(Structure.class);
+			final Map<IntLocation, SmokingBlock> myActiveBlocks = activeBlocks.get(worldName);
+			final SmokeWorld smokeWorld = smokeWorlds.get(worldName);
+			long registryBytes = smokerCount * (MAP_ENTRY_BYTES + LOCATION_BYTES + SMOKER_BYTES)
+				+ ((myActiveBlocks != null) ? myActiveBlocks.size() * MAP_ENTRY_BYTES : 0);
+			long particleBytes = 0, occupancyBytes = 0, snapshotBytes = smokerCount * SNAPSHOT_BYTES;
+			if (smokeWorld != null) {
+				registryBytes += (smokeWorld.emitterCellCount * EMITTER_CELL_BYTES) + (smokeWorld.unpackedCount * SMOKE_STATE_BYTES);
+				particleBytes = smokeWorld.particleCount * PARTICLE_BYTES;
+				occupancyBytes = (smokeWorld.occupancyCount * OCCUPANCY_BYTES) + (smokeWorld.dirtyCellCount * MAP_ENTRY_BYTES);
+				snapshotBytes += smokeWorld.plumeCount * PLUME_BYTES;
+			}
+			worldBytes.put(Structure.REGISTRY, registryBytes);
+			worldBytes.put(Structure.PARTICLES, particleBytes);
+			worldBytes.put(Structure.OCCUPANCY, occupancyBytes);
+			// Every smoker is in exactly one set of the chunk index
+			final Map<Long, Set<IntLocation>> chunkIndex = smokersByChunk.get(worldName);
+			worldBytes.put(Structure.INDEX, (chunkIndex != null) ? ((chunkIndex.size() * CHUNK_BYTES) + (smokerCount * MAP_ENTRY_BYTES)) : 0L);
+			worldBytes.put(Structure.SNAPSHOTS, snapshotBytes);
+			bytesByWorld.put(worldName, worldBytes);
+			if (topCount > 0)
+				for (final SmokingBlock smokingBlock: entry.getValue().values()) {
+					final int particleCount = smokingBlock.getParticleCount();
+					final long bytes = LOCATION_BYTES + SMOKER_BYTES + SNAPSHOT_BYTES
+						+ (smokingBlock.isEmitter() ? smokingBlock.getEmitterCells().size() * EMITTER_CELL_BYTES : 0)
+						+ (smokingBlock.isPacked() ? 0 : SMOKE_STATE_BYTES)
+						+ (particleCount * PARTICLE_BYTES) + ((particleCount > 0) ? PLUME_BYTES : 0)
+						+ (smokingBlock.getOccupancyCount() * OCCUPANCY_BYTES) + (smokingBlock.getDirtyCellCount() * MAP_ENTRY_BYTES);
+					largest.add(new SmokerFootprint(worldName, smokingBlock.location, particleCount, bytes));
+					if (largest.size() > topCount)
+						largest.poll();
+				}
+		}
+		topSmokers = new ArrayList<>(largest);
+		Collections.sort(topSmokers, bySize.reversed());
+	}
+
+	long getTotalBytes() {
+		long total = 0;
+		for (final Map<Structure, Long> worldBytes: bytesByWorld.values())
+			for (final long bytes: worldBytes.values())
+				total += bytes;
+		return total;
+	}
+
+	Set<String> getWorldNames() {
+		return bytesByWorld.keySet();
+	}
+
+	long getBytes(String worldName) {
+		long total = 0;
+		for (final long bytes: bytesByWorld.get(worldName).values())
+			total += bytes;
+		return total;
+	}
+
+	long getBytes(String worldName, Structure structure) {
+		return bytesByWorld.get(worldName).get(structure);
+	}
+
+	long getBytes(Structure structure) {
+		long total = 0;
+		for (final Map<Structure, Long> worldBytes: bytesByWorld.values())
+			total += worldBytes.get(structure);
+		return total;
+	}
+
+	/**
+	 * Get the largest smokers, largest first.
+	 */
+	List<SmokerFootprint> getTopSmokers() {
+		return topSmokers;
+	}
+
+	static String formatBytes(long bytes) {
+		if (bytes < 10 * 1024)
+			return bytes + " B";
+		else if (bytes < 10 * 1024 * 1024)
+			return (bytes / 1024) + " KB";
+		else
+			return (bytes / (1024 * 1024)) + " MB";
+	}
+
+	private final Map<String, Map<Structure, Long>> bytesByWorld = new TreeMap<>();
+	private final List<SmokerFootprint> topSmokers;
+
+	/**
+	 * A hash map or set entry: the node, plus its share of the table at the
+	 * default load factor.
+	 */
+	private static final long MAP_ENTRY_BYTES = 37;
+	private static final long LOCATION_BYTES = 24;
+	/**
+	 * A smoking block, without the state of its smoke.
+	 */
+	private static final long SMOKER_BYTES = 120;
+	/**
+	 * The random number generator and the (empty) collections of a smoking
+	 * block which is not packed.
+	 */
+	private static final long SMOKE_STATE_BYTES = 264;
+	/**
+	 * The published snapshot of a smoker and its slot in the list of its
+	 * world, and the corners of its plume if it has smoke.
+	 */
+	private static final long SNAPSHOT_BYTES = 40 + 4, PLUME_BYTES = 2 * LOCATION_BYTES;
+	/**
+	 * A cell of an emitter and its slot in the array of cells.
+	 */
+	private static final long EMITTER_CELL_BYTES = LOCATION_BYTES + 4;
+	/**
+	 * A smoke block, its location and its entry in the set of its smoking
+	 * block.
+	 */
+	private static final long PARTICLE_BYTES = 24 + LOCATION_BYTES + MAP_ENTRY_BYTES;
+	/**
+	 * An occupancy count entry and its key. The counts themselves are small
+	 * enough to be cached <code>Integer</code>s.
+	 */
+	private static final long OCCUPANCY_BYTES = MAP_ENTRY_BYTES + LOCATION_BYTES;
+	/**
+	 * An entry in the chunk index, with its boxed key and its set of
+	 * locations. The locations are shared with the registry.
+	 */
+	private static final long CHUNK_BYTES = MAP_ENTRY_BYTES + 24 + 144;
+
+	/**
+	 * The structures for which memory use is estimated.
+	 */
+	enum Structure {
+		REGISTRY("smoker registry"), PARTICLES("particles"), OCCUPANCY("occupancy entries"), INDEX("chunk index"), SNAPSHOTS("snapshots");
+
+		Structure(String description) {
+			this.description = description;
+		}
+
+		final String description;
+	}
+
+	/**
+	 * The estimated memory use of a single smoker.
+	 */
+	static final class SmokerFootprint {
+		SmokerFootprint(String worldName, IntLocation location, int particleCount, long bytes) {
+			this.worldName = worldName;
+			this.location = location;
+			this.particleCount = particleCount;
+			this.bytes = bytes;
+		}
+
+		final String worldName;
+		final IntLocation location;
+		final int particleCount;
+		final long bytes;
+	}
+}
\ No newline at end of file
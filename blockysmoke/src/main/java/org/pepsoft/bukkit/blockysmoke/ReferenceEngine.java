@@ -0,0 +1,199 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+import org.bukkit.Material;
+import org.pepsoft.util.MathUtils;
+
+/**
+ * The reference implementation of the smoke simulation, against which
+ * faster engines are validated. It is deliberately kept simple and should
+ * not be optimised: every smoker reconciles all its occupied cells with the
+ * world on every update, and there is no scheduling, caching or chunk
+ * tracking. Any change to the intended behaviour of the smoke must be made
+ * here as well as in the other engines.
+ *
+ * @author Pepijn Schmitz
+ */
+final class ReferenceEngine implements SmokeEngine {
+	@Override
+	public void addSmoker(IntLocation location, SmokerSettings settings, long seed) {
+		smokers.add(new Smoker(location, settings, new Random(seed)));
+	}
+
+	@Override
+	public void tick(SmokeWorld smokeWorld) {
+		for (final Smoker smoker: smokers)
+			smoker.tick(smokeWorld);
+	}
+
+	@Override
+	public void visitParticles(BiConsumer<IntLocation, IntLocation> visitor) {
+		for (final Smoker smoker: smokers)
+			for (final Particle particle: smoker.particles)
+				visitor.accept(smoker.location, particle.location);
+	}
+
+	@Override
+	public void removeSmoke(SmokeWorld smokeWorld) {
+		final BlockAccess blocks = smokeWorld.blocks;
+		for (final Smoker smoker: smokers) {
+			for (final IntLocation cell: smoker.occupancyCounts.keySet())
+				if (blocks.getType(cell.x, cell.y, cell.z) == smoker.settings.smokeType) {
+					blocks.setType(cell.x, cell.y, cell.z, Material.AIR);
+					if (smokeWorld.ledger != null)
+						smokeWorld.ledger.cleared(cell);
+				}
+			smoker.particles.clear();
+			smoker.occupancyCounts.clear();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "reference";
+	}
+
+	private final List<Smoker> smokers = new ArrayList<>();
+
+	private static final int[][][] PROPAGATION_OFFSETS = {
+			{{0, 1, 0}},
+			{{-1, 1, -1}, {-1, 1, 0}, {-1, 1, 1}, {0, 1, -1}, {0, 1, 1}, {1, 1, -1}, {1, 1, 0}, {1, 1, 1}},
+			{{-1, 0, -1}, {-1, 0, 0}, {-1, 0, 1}, {0, 0, -1}, {0, 0, 0}, {0, 0, 1}, {1, 0, -1}, {1, 0, 0}, {1, 0, 1}},
+			{{-1, -1, -1}, {-1, -1, 0}, {-1, -1, 1}, {0, -1, -1}, {0, -1, 1}, {1, -1, -1}, {1, -1, 0}, {1, -1, 1}},
+			{{0, -1, 0}}
+	};
+
+	private static final class Smoker {
+		Smoker(IntLocation location, SmokerSettings settings, Random random) {
+			this.location = location;
+			this.settings = settings;
+			this.random = random;
+		}
+
+		void tick(SmokeWorld smokeWorld) {
+			final BlockAccess blocks = smokeWorld.blocks;
+			// Spawn new particles at the source block
+			final int particlesToSpawn = random.nextInt(settings.densityMax - settings.densityMin + 1) + settings.densityMin;
+			for (int i = 0; i < particlesToSpawn; i++)
+				particles.add(new Particle(location));
+			occupancyCounts.put(location, count(location) + particlesToSpawn);
+
+			// Move or remove the particles
+			for (final Iterator<Particle> i = particles.iterator(); i.hasNext(); ) {
+				final Particle particle = i.next();
+				final IntLocation newLocation;
+				if ((particle.location.y >= blocks.getMaxHeight())
+						|| (MathUtils.getDistance(location, particle.location) > settings.maxDistance)
+						|| (random.nextFloat() < settings.decayChance)
+						|| ((newLocation = findLocation(smokeWorld, particle.location)) == null)) {
+					occupancyCounts.put(particle.location, count(particle.location) - 1);
+					i.remove();
+				} else if (! newLocation.equals(particle.location)) {
+					occupancyCounts.put(particle.location, count(particle.location) - 1);
+					occupancyCounts.put(newLocation, count(newLocation) + 1);
+					particle.location = newLocation;
+				}
+			}
+
+			// Make the world match the occupancy counts
+			for (final Iterator<Map.Entry<IntLocation, Integer>> i = occupancyCounts.entrySet().iterator(); i.hasNext(); ) {
+				final Map.Entry<IntLocation, Integer> entry = i.next();
+				final IntLocation cell = entry.getKey();
+				final Material existingType = blocks.getType(cell.x, cell.y, cell.z);
+				// Record the smoke in the ledger of the world, if it has one,
+				// so that it is removed after a crash
+				if (entry.getValue() < 1) {
+					if (existingType == settings.smokeType) {
+						blocks.setType(cell.x, cell.y, cell.z, Material.AIR);
+						if (smokeWorld.ledger != null)
+							smokeWorld.ledger.cleared(cell);
+					}
+					i.remove();
+				} else if (existingType == Material.AIR) {
+					blocks.setType(cell.x, cell.y, cell.z, settings.smokeType);
+					if (smokeWorld.ledger != null)
+						smokeWorld.ledger.placed(cell, settings.smokeType);
+				}
+			}
+		}
+
+		private IntLocation findLocation(SmokeWorld smokeWorld, IntLocation oldLocation) {
+			int dx = 0, dz = 0;
+			if (settings.randomSpread) {
+				dx = random.nextInt(9);
+				dx = (dx == 0) ? -1 : ((dx == 8) ? 1 : 0);
+				dz = random.nextInt(9);
+				dz = (dz == 0) ? -1 : ((dz == 8) ? 1 : 0);
+			}
+			// A wind direction indicates where the wind comes *from*
+			WindDirection wind = smokeWorld.wind.getDirection();
+			if (settings.fromDirection != null)
+				wind = wind.constrain(settings.fromDirection, settings.toDirection);
+			dx -= wind.dx * smokeWorld.wind.getStrength();
+			dz -= wind.dy * smokeWorld.wind.getStrength();
+			final boolean spread = settings.densityMax > 1;
+			for (final int[][] candidates: PROPAGATION_OFFSETS) {
+				final Integer[] order = new Integer[candidates.length];
+				for (int j = 0; j < order.length; j++)
+					order[j] = j;
+				if (order.length > 1)
+					Collections.shuffle(Arrays.asList(order), random);
+				for (final int j: order) {
+					final int[] offsets = candidates[j];
+					final IntLocation newLocation = new IntLocation(oldLocation.x + offsets[0] + dx, oldLocation.y + offsets[1], oldLocation.z + offsets[2] + dz);
+					if (newLocation.y < smokeWorld.blocks.getMaxHeight()) {
+						final Material existingType = smokeWorld.blocks.getType(newLocation.x, newLocation.y, newLocation.z);
+						if ((existingType == Material.AIR)
+								|| ((existingType == settings.smokeType) && ((! spread) || random.nextBoolean())))
+							return newLocation;
+					}
+				}
+			}
+			return null;
+		}
+
+		private int count(IntLocation cell) {
+			final Integer count = occupancyCounts.get(cell);
+			return (count != null) ? count : 0;
+		}
+
+		final IntLocation location;
+		final SmokerSettings settings;
+		final Random random;
+		final List<Particle> particles = new ArrayList<>();
+		final Map<IntLocation, Integer> occupancyCounts = new HashMap<>();
+	}
+
+	private static final class Particle {
+		Particle(IntLocation location) {
+			this.location = location;
+		}
+
+		IntLocation location;
+	}
+}
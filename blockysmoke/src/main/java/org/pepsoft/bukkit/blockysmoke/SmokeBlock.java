@@ -17,8 +17,6 @@
 package org.pepsoft.bukkit.blockysmoke;
 
 import static org.pepsoft.bukkit.blockysmoke.BlockySmokePlugin.logger;
-import static org.pepsoft.bukkit.blockysmoke.BlockySmokePlugin.windDirection;
-import static org.pepsoft.bukkit.blockysmoke.BlockySmokePlugin.windStrength;
 
 import java.io.Serializable;
 import java.util.Arrays;
@@ -27,8 +25,6 @@ import java.util.Random;
 import java.util.logging.Level;
 
 import org.bukkit.Material;
-import org.bukkit.World;
-import org.bukkit.block.Block;
 import org.pepsoft.util.MathUtils;
 
 /**
@@ -38,33 +34,49 @@ import org.pepsoft.util.MathUtils;
  */
 public final class SmokeBlock implements Serializable {
 	public SmokeBlock(SmokingBlock smokingBlock, IntLocation location) {
+		this(smokingBlock, location, smokingBlock.location);
+	}
+
+	/**
+	 * Create a smoke block which originates from a particular cell of an
+	 * emitter, from which its distance is measured.
+	 */
+	SmokeBlock(SmokingBlock smokingBlock, IntLocation location, IntLocation origin) {
 		if (logger.isLoggable(Level.FINE))
 			logger.fine("[BlockySmoke] Smoke block " + Integer.toHexString(hashCode()) + " created @ " + location);
 		this.smokingBlock = smokingBlock;
 		this.location = location;
+		this.origin = origin;
 	}
 
-	public boolean tick(World world, Random random) {
-		if (location.y >= world.getMaxHeight()) {
+	public boolean tick(SmokeWorld smokeWorld, Random random) {
+		final SmokerSettings settings = smokingBlock.getSettings();
+		if (! smokeWorld.isLoaded(location)) {
+			// The chunk containing the smoke has been unloaded
+			if (logger.isLoggable(Level.FINE))
+				logger.fine("[BlockySmoke] Smoke block " + Integer.toHexString(hashCode()) + " @ " + location + " is in a chunk which is not loaded; removing it");
+			smokingBlock.remove(location);
+			return false;
+		} else if (location.y >= smokeWorld.blocks.getMaxHeight()) {
 			// The smoke is leaving the world
 			if (logger.isLoggable(Level.FINE))
 				logger.fine("[BlockySmoke] Smoke block " + Integer.toHexString(hashCode()) + " @ " + location + " has reached the maximum map height; removing it");
 			smokingBlock.remove(location);
 			return false;
-		} else if (MathUtils.getDistance(smokingBlock.location, location) > smokingBlock.maxDistance) {
+		} else if (MathUtils.getDistance(origin, location) > settings.maxDistance) {
 			// The smoke is too far away from the source block
 			if (logger.isLoggable(Level.FINE))
 				logger.fine("[BlockySmoke] Smoke block " + Integer.toHexString(hashCode()) + " @ " + location + " has reached the maximum distance from the source block; removing it");
 			smokingBlock.remove(location);
 			return false;
-		} else if (random.nextFloat() < smokingBlock.decayChance) {
+		} else if (random.nextFloat() < settings.decayChance) {
 			// The smoke should dissipate
 			if (logger.isLoggable(Level.FINE))
 				logger.fine("[BlockySmoke] Dissipating smoke block " + Integer.toHexString(hashCode()) + " @ " + location);
 			smokingBlock.remove(location);
 			return false;
 		} else {
-			final IntLocation newLocation = findLocation(world, random, location);
+			final IntLocation newLocation = findLocation(smokeWorld, random, location);
 			if (newLocation != null) {
 				// The smake can move to a new location
 				if (logger.isLoggable(Level.FINE))
@@ -82,9 +94,11 @@ public final class SmokeBlock implements Serializable {
 		}
 	}
 
-	private IntLocation findLocation(World world, Random random, IntLocation oldLocation) {
+	private IntLocation findLocation(SmokeWorld smokeWorld, Random random, IntLocation oldLocation) {
+		final WindModel windModel = smokeWorld.wind;
+		final SmokerSettings settings = smokingBlock.getSettings();
 		int dx = 0, dz = 0;
-		if (smokingBlock.randomSpread) {
+		if (settings.randomSpread) {
 			dx = random.nextInt(9);
 			if (dx == 0)
 				dx = -1;
@@ -102,17 +116,17 @@ public final class SmokeBlock implements Serializable {
 		}
 		// Invert wind direction, because a wind direction indicates *from*
 		// which direction it comes
-		WindDirection wind = windDirection;
-		if (smokingBlock.fromDirection != null)
-			wind = wind.constrain(smokingBlock.fromDirection, smokingBlock.toDirection);
-		dx += wind.dx * -windStrength;
-		dz += wind.dy * -windStrength;
-		final boolean spread = smokingBlock.densityMax > 1;
+		WindDirection wind = windModel.getDirection();
+		if (settings.fromDirection != null)
+			wind = wind.constrain(settings.fromDirection, settings.toDirection);
+		dx += wind.dx * -windModel.getStrength();
+		dz += wind.dy * -windModel.getStrength();
+		final boolean spread = settings.densityMax > 1;
 		for (int i = 0; i < PROPAGATION_OFFSETS.length; i++)
 			if (PROPAGATION_OFFSETS[i].length == 1) {
 				final int[] offsets = PROPAGATION_OFFSETS[i][0];
 				final IntLocation newLocation = new IntLocation(oldLocation.x + offsets[0] + dx, oldLocation.y + offsets[1], oldLocation.z + offsets[2] + dz);
-				if (probe(world, random, newLocation, spread))
+				if (probe(smokeWorld, random, newLocation, spread))
 					return newLocation;
 			} else {
 				final Integer[] offsetOffsets = new Integer[PROPAGATION_OFFSETS[i].length];
@@ -122,7 +136,7 @@ public final class SmokeBlock implements Serializable {
 				for (int j = 0; j < offsetOffsets.length; j++) {
 					final int[] offsets = PROPAGATION_OFFSETS[i][offsetOffsets[j]];
 					final IntLocation newLocation = new IntLocation(oldLocation.x + offsets[0] + dx, oldLocation.y + offsets[1], oldLocation.z + offsets[2] + dz);
-					if (probe(world, random, newLocation, spread))
+					if (probe(smokeWorld, random, newLocation, spread))
 						return newLocation;
 				}
 			}
@@ -130,29 +144,44 @@ public final class SmokeBlock implements Serializable {
 	}
 
 	/**
-	 * Tests whether a new location for a smoke block is viable.
+	 * Tests whether a new location for a smoke block is viable. Locations in
+	 * chunks which are not loaded are never viable, to avoid loading chunks.
 	 *
-	 * @param world The world in which to test for a new location.
+	 * @param smokeWorld The world in which to test for a new location.
 	 * @param random The random generator to use for entropy.
 	 * @param newLocation The new location to test.
 	 * @param spread Whether to spread away from existing smoke blocks.
 	 * @return <code>true</code> if location is viable for smoke.
 	 */
-	private boolean probe(World world, Random random, IntLocation newLocation, boolean spread) {
-		if (newLocation.y >= world.getMaxHeight())
+	private boolean probe(SmokeWorld smokeWorld, Random random, IntLocation newLocation, boolean spread) {
+		if ((newLocation.y >= smokeWorld.blocks.getMaxHeight()) || (! smokeWorld.isLoaded(newLocation)))
 			return false;
-		final Block block = world.getBlockAt(newLocation.x, newLocation.y, newLocation.z);
-		final Material existingBlockType = block.getType();
+		else if (smokeWorld.isOpenSky(newLocation) && (! smokeWorld.isSmoke(newLocation.x, newLocation.y, newLocation.z)))
+			// Nothing is above the terrain or builds here, and no smoke has
+			// been placed here, so there can only be air and there is no need
+			// to look
+			return true;
+		final Material existingBlockType = smokeWorld.blocks.getType(newLocation.x, newLocation.y, newLocation.z);
+		smokeWorld.blockReads++;
 		if (existingBlockType == Material.AIR)
 			// Always spread to air
 			return true;
-		else if ((existingBlockType == smokingBlock.smokeType))
+		else if ((existingBlockType == smokingBlock.getSettings().smokeType))
 			// Only spread to existing smoke block in half the cases
 			return (! spread) || random.nextBoolean();
 		return false;
 	}
 
+	IntLocation getLocation() {
+		return location;
+	}
+
+	IntLocation getOrigin() {
+		return origin;
+	}
+
 	private final SmokingBlock smokingBlock;
+	private final IntLocation origin;
 	private IntLocation location;
 
 	private static final int[][][] PROPAGATION_OFFSETS = {
@@ -0,0 +1,59 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import java.util.function.BiConsumer;
+
+/**
+ * An implementation of the smoke simulation, which can be run on a
+ * {@link SmokeWorld}. Used to compare implementations with each other; see
+ * {@link EngineComparison}.
+ *
+ * @author Pepijn Schmitz
+ */
+interface SmokeEngine {
+	/**
+	 * Add a smoker.
+	 *
+	 * @param location The location of the source block.
+	 * @param settings The settings of the smoker.
+	 * @param seed The seed for the random number generator of the smoker.
+	 */
+	void addSmoker(IntLocation location, SmokerSettings settings, long seed);
+
+	/**
+	 * Update all smokers once.
+	 *
+	 * @param smokeWorld The world in which the smokers are located.
+	 */
+	void tick(SmokeWorld smokeWorld);
+
+	/**
+	 * Visit all particles.
+	 *
+	 * @param visitor The visitor, which is passed the location of the
+	 *     smoker and the location of the particle.
+	 */
+	void visitParticles(BiConsumer<IntLocation, IntLocation> visitor);
+
+	/**
+	 * Remove all smoke of the smokers from the world, and forget it.
+	 *
+	 * @param smokeWorld The world in which the smokers are located.
+	 */
+	void removeSmoke(SmokeWorld smokeWorld);
+}
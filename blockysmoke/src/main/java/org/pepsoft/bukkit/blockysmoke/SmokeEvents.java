@@ -0,0 +1,99 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import java.util.Collection;
+
+/**
+ * Emits Java Flight Recorder events for the work done by the smoke, so that
+ * its cost can be correlated with garbage collection and other plugins in a
+ * single recording. Off by default. While disabled every method returns
+ * immediately and the flight recorder classes are never loaded, so the plugin
+ * still runs on Java versions which do not have them.
+ *
+ * <p>Events are begun with one of the <code>begin</code> methods, which
+ * return an opaque event, or <code>null</code> while disabled, and committed
+ * with the corresponding <code>commit</code> method.
+ *
+ * @author Pepijn Schmitz
+ */
+final class SmokeEvents {
+	private SmokeEvents() {
+		// Prevent instantiation
+	}
+
+	/**
+	 * Enable the events, if the flight recorder is available.
+	 *
+	 * @return <code>true</code> if the events were enabled,
+	 *     <code>false</code> if the flight recorder is not available.
+	 */
+	static boolean enable() {
+		try {
+			Class.forName("jdk.jfr.Event");
+		} catch (final ClassNotFoundException e) {
+			return false;
+		}
+		enabled = true;
+		return true;
+	}
+
+	static void disable() {
+		enabled = false;
+	}
+
+	static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Begin the event for the smokers of a world which are due on a tick,
+	 * which times the spawn, propagate and reconcile phases of their ticks.
+	 */
+	static Object beginTick(SmokeWorld smokeWorld) {
+		return enabled ? JfrSmokeEvents.beginTick(smokeWorld) : null;
+	}
+
+	static void commitTick(Object event, SmokeWorld smokeWorld) {
+		if (event != null)
+			JfrSmokeEvents.commitTick(event, smokeWorld);
+	}
+
+	static Object beginChunkActivation() {
+		return enabled ? JfrSmokeEvents.beginChunkActivation() : null;
+	}
+
+	static void commitChunkActivation(Object event, String worldName, int chunkX, int chunkZ, Collection<SmokingBlock> smokingBlocks) {
+		if (event != null)
+			JfrSmokeEvents.commitChunkActivation(event, worldName, chunkX, chunkZ, smokingBlocks);
+	}
+
+	/**
+	 * Begin the event for saving or loading the smokers of a world. May be
+	 * invoked on any thread.
+	 */
+	static Object beginPersistence() {
+		return enabled ? JfrSmokeEvents.beginPersistence() : null;
+	}
+
+	static void commitPersistence(Object event, String worldName, boolean save, Collection<SmokingBlock> smokingBlocks) {
+		if (event != null)
+			JfrSmokeEvents.commitPersistence(event, worldName, save, smokingBlocks);
+	}
+
+	private static volatile boolean enabled;
+}
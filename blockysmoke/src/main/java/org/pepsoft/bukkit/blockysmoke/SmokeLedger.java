@@ -0,0 +1,369 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import static org.pepsoft.bukkit.blockysmoke.BlockySmokePlugin.logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+
+import org.bukkit.Material;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * An append-only record of the cells of a world in which smoke has been
+ * placed and cleared, so that smoke which was left behind by a crash can be
+ * found and removed without scanning the world.
+ *
+ * <p>There is one file per region of 32 by 32 chunks. Records are collected
+ * in memory on the main thread and appended to the files in batches on a
+ * background thread. Each record is a single int containing the operation
+ * and the coordinates of the cell relative to the region, except that the
+ * type of the smoke is declared by name before the first cell of each type
+ * in a batch. A record which was only partially written when the server
+ * died is cut off before anything is appended to the file again, so that the
+ * records after it can still be read. A file which grows too large is
+ * compacted to only the cells which still contain smoke.
+ *
+ * @author Pepijn Schmitz
+ */
+final class SmokeLedger {
+	/**
+	 * @param plugin The plugin on behalf of which to write in the background.
+	 * @param directory The directory in which to keep the files of the world.
+	 */
+	SmokeLedger(Plugin plugin, File directory) {
+		this.plugin = plugin;
+		this.directory = directory;
+		lock = LOCKS.computeIfAbsent(directory.getAbsoluteFile(), key -> new Object());
+	}
+
+	/**
+	 * Record that smoke has been placed in a cell. Must be invoked on the
+	 * main thread.
+	 */
+	void placed(IntLocation cell, Material type) {
+		final Batch batch = getBatch(cell);
+		try {
+			if (type != batch.type) {
+				batch.out.writeInt(OP_TYPE << 28);
+				batch.out.writeUTF(type.name());
+				batch.type = type;
+			}
+			batch.out.writeInt(encode(OP_PLACED, cell));
+		} catch (final IOException e) {
+			// Cannot happen for an in-memory stream
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Record that smoke has been cleared from a cell, or that it is no
+	 * longer the responsibility of the smoke. Must be invoked on the main
+	 * thread.
+	 */
+	void cleared(IntLocation cell) {
+		try {
+			getBatch(cell).out.writeInt(encode(OP_CLEARED, cell));
+		} catch (final IOException e) {
+			// Cannot happen for an in-memory stream
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Append the records collected so far to the files on a background
+	 * thread. Must be invoked on the main thread.
+	 */
+	void flush() {
+		if (queueBatches())
+			plugin.getServer().getScheduler().runTaskAsynchronously(plugin, this::write);
+	}
+
+	/**
+	 * Append the records collected so far to the files immediately, for
+	 * instance because the world is being unloaded or the plugin disabled.
+	 * Must be invoked on the main thread.
+	 */
+	void close() {
+		queueBatches();
+		write();
+	}
+
+	/**
+	 * Read all files of the world and determine which cells should still
+	 * contain smoke according to them. May be invoked on any thread.
+	 *
+	 * @return The cells which should still contain smoke, with the type of
+	 *     the smoke.
+	 */
+	Map<IntLocation, Material> replay() {
+		final Map<IntLocation, Material> cells = new HashMap<>();
+		synchronized (lock) {
+			final File[] files = directory.listFiles((dir, name) -> name.startsWith("r.") && name.endsWith(".ledger"));
+			if (files != null)
+				for (final File file: files)
+					try {
+						truncate(file, read(file, cells));
+						checkedFiles.add(file);
+					} catch (final IOException | IllegalArgumentException e) {
+						logger.log(Level.SEVERE, "[BlockySmoke] Could not read smoke ledger " + file.getAbsolutePath() + "; smoke left behind in that region will not be removed", e);
+					}
+		}
+		return cells;
+	}
+
+	private Batch getBatch(IntLocation cell) {
+		final long regionKey = IntLocation.chunkKey(cell.x >> 9, cell.z >> 9);
+		Batch batch = batches.get(regionKey);
+		if (batch == null) {
+			batch = new Batch(cell.x >> 9, cell.z >> 9);
+			batches.put(regionKey, batch);
+		}
+		return batch;
+	}
+
+	/**
+	 * Hand the batches collected so far over to the writer.
+	 *
+	 * @return <code>true</code> if there were any batches.
+	 */
+	private boolean queueBatches() {
+		if (batches.isEmpty())
+			return false;
+		queue.addAll(batches.values());
+		batches.clear();
+		return true;
+	}
+
+	/**
+	 * Append all queued batches to their files, in the order in which they
+	 * were queued, and compact files which have grown too large.
+	 */
+	private void write() {
+		synchronized (lock) {
+			Batch batch;
+			while ((batch = queue.poll()) != null) {
+				final File file = new File(directory, "r." + batch.regionX + "." + batch.regionZ + ".ledger");
+				try {
+					if (! directory.isDirectory())
+						directory.mkdirs();
+					if (checkedFiles.add(file) && file.isFile())
+						// The file has not been replayed by this ledger; make
+						// sure it does not end in a partial record
+						truncate(file, read(file, new HashMap<>()));
+					final FileOutputStream out = new FileOutputStream(file, true);
+					try {
+						batch.bytes.writeTo(out);
+						out.getChannel().force(false);
+					} finally {
+						out.close();
+					}
+					if (file.length() > COMPACTION_THRESHOLD)
+						compact(file);
+				} catch (final IOException | IllegalArgumentException e) {
+					logger.log(Level.SEVERE, "[BlockySmoke] I/O error while writing smoke ledger " + file.getAbsolutePath() + "; smoke left behind by a crash may not be removed", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rewrite a file to contain only the cells which should still contain
+	 * smoke.
+	 */
+	private void compact(File file) throws IOException {
+		final Map<IntLocation, Material> cells = new HashMap<>();
+		read(file, cells);
+		if (cells.isEmpty()) {
+			if (! file.delete())
+				throw new IOException("Could not delete " + file.getAbsolutePath());
+			return;
+		}
+		final File tmpFile = new File(directory, file.getName() + ".tmp");
+		final FileOutputStream fileOut = new FileOutputStream(tmpFile);
+		try {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+			// Group the cells by type, so that each type is declared once
+			final Map<Material, List<IntLocation>> cellsByType = new HashMap<>();
+			for (final Map.Entry<IntLocation, Material> entry: cells.entrySet()) {
+				List<IntLocation> cellsOfType = cellsByType.get(entry.getValue());
+				if (cellsOfType == null) {
+					cellsOfType = new ArrayList<>();
+					cellsByType.put(entry.getValue(), cellsOfType);
+				}
+				cellsOfType.add(entry.getKey());
+			}
+			for (final Map.Entry<Material, List<IntLocation>> entry: cellsByType.entrySet()) {
+				out.writeInt(OP_TYPE << 28);
+				out.writeUTF(entry.getKey().name());
+				for (final IntLocation cell: entry.getValue())
+					out.writeInt(encode(OP_PLACED, cell));
+			}
+			out.flush();
+			fileOut.getChannel().force(false);
+		} finally {
+			fileOut.close();
+		}
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		if (logger.isLoggable(Level.FINE))
+			logger.fine("[BlockySmoke] Compacted smoke ledger " + file.getAbsolutePath() + " to " + cells.size() + " cells");
+	}
+
+	/**
+	 * Replay a file onto a map of cells which should contain smoke.
+	 *
+	 * @return The length of the complete records in the file, which is less
+	 *     than the length of the file if the last record was only partially
+	 *     written.
+	 */
+	private static long read(File file, Map<IntLocation, Material> cells) throws IOException {
+		final String[] parts = file.getName().split("\\.");
+		final int regionX = Integer.parseInt(parts[1]), regionZ = Integer.parseInt(parts[2]);
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		long length = 0;
+		try {
+			Material type = null;
+			while (true) {
+				final int record = in.readInt();
+				final int op = record >>> 28;
+				if (op == OP_TYPE) {
+					final String name = in.readUTF();
+					type = Material.valueOf(name);
+					length += 6 + utfLength(name);
+				} else {
+					final IntLocation cell = new IntLocation((regionX << 9) | ((record >>> 19) & 0x1ff), record & 0x3ff, (regionZ << 9) | ((record >>> 10) & 0x1ff));
+					if ((op == OP_PLACED) && (type != null))
+						cells.put(cell, type);
+					else
+						cells.remove(cell);
+					length += 4;
+				}
+			}
+		} catch (final EOFException e) {
+			// The end of the file, or a record which was only partially
+			// written
+		} finally {
+			in.close();
+		}
+		return length;
+	}
+
+	/**
+	 * Cut off a partially written record at the end of a file.
+	 */
+	private static void truncate(File file, long length) throws IOException {
+		if (file.length() > length) {
+			logger.warning("[BlockySmoke] Removing " + (file.length() - length) + " bytes of partially written records from smoke ledger " + file.getAbsolutePath());
+			final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(length);
+			} finally {
+				raf.close();
+			}
+		}
+	}
+
+	/**
+	 * The number of bytes a string takes up in the modified UTF-8 encoding of
+	 * {@link DataOutputStream#writeUTF(String)}, not counting the length.
+	 */
+	private static int utfLength(String str) {
+		int length = 0;
+		for (int i = 0; i < str.length(); i++) {
+			final char c = str.charAt(i);
+			if ((c >= 0x0001) && (c <= 0x007f))
+				length++;
+			else if (c <= 0x07ff)
+				length += 2;
+			else
+				length += 3;
+		}
+		return length;
+	}
+
+	private static int encode(int op, IntLocation cell) {
+		return (op << 28) | ((cell.x & 0x1ff) << 19) | ((cell.z & 0x1ff) << 10) | (cell.y & 0x3ff);
+	}
+
+	private final Plugin plugin;
+	private final File directory;
+	private final Map<Long, Batch> batches = new HashMap<>();
+	private final Queue<Batch> queue = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Serialises all access to the files of the world, so that batches are
+	 * appended in order and never while a file is being compacted or read.
+	 * Shared with any other ledger of the same world, such as the one of a
+	 * previous activation which may still be writing.
+	 */
+	private final Object lock;
+
+	/**
+	 * The files which are known not to end in a partial record. Guarded by
+	 * {@link #lock}.
+	 */
+	private final Set<File> checkedFiles = new HashSet<>();
+
+	private static final Map<File, Object> LOCKS = new ConcurrentHashMap<>();
+
+	private static final int OP_PLACED = 0, OP_CLEARED = 1, OP_TYPE = 2;
+
+	/**
+	 * The size in bytes above which a file is compacted.
+	 */
+	private static final long COMPACTION_THRESHOLD = 1024 * 1024;
+
+	/**
+	 * The records of one region, collected in memory until they are written.
+	 */
+	private static final class Batch {
+		Batch(int regionX, int regionZ) {
+			this.regionX = regionX;
+			this.regionZ = regionZ;
+		}
+
+		final int regionX, regionZ;
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		/**
+		 * The type of smoke last declared in this batch.
+		 */
+		Material type;
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import static org.pepsoft.bukkit.blockysmoke.BlockySmokePlugin.logger;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.logging.Level;
+
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Fast-forwards the plumes of smokers which have been activated, a limited
+ * number of updates per tick, so that loading a chunk full of smokers does
+ * not freeze the server. A queued smoker is only scheduled once its plume has
+ * been fast-forwarded, so that it does not start growing from its source
+ * block in the mean time. Smokers which are no longer active by the time
+ * their turn comes are skipped; they are queued again when they are
+ * activated again. While the smokers are paused they are scheduled without
+ * being fast-forwarded.
+ *
+ * @author Pepijn Schmitz
+ */
+final class SmokePrewarm implements Runnable {
+	SmokePrewarm(BlockySmokePlugin plugin) {
+		this.plugin = plugin;
+	}
+
+	/**
+	 * Set the maximum number of updates to fast-forward per smoker.
+	 */
+	void setMaxTicks(int maxTicks) {
+		this.maxTicks = maxTicks;
+	}
+
+	/**
+	 * Set the maximum number of updates to fast-forward per tick, over all
+	 * smokers. At least one smoker is fast-forwarded per tick regardless.
+	 */
+	void setBudget(int budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Queue a smoker which has just been activated to have its plume
+	 * fast-forwarded, after which it is scheduled.
+	 *
+	 * @param smokeWorld The world in which the smoker is located.
+	 * @param smokingBlock The smoker to fast-forward.
+	 */
+	void add(SmokeWorld smokeWorld, SmokingBlock smokingBlock) {
+		jobs.add(new Job(smokeWorld, smokingBlock));
+		if (task == null)
+			task = plugin.getServer().getScheduler().runTaskTimer(plugin, this, 1, 1);
+	}
+
+	/**
+	 * Fast-forward the next smokers, within the budget. Invoked on the main
+	 * thread every tick while there are smokers queued.
+	 */
+	@Override
+	public void run() {
+		int remaining = budget;
+		while ((remaining > 0) && (! jobs.isEmpty())) {
+			final Job job = jobs.remove();
+			final SmokingBlock smokingBlock = job.smokingBlock;
+			if (! plugin.isActive(job.smokeWorld, smokingBlock))
+				continue;
+			final int ticks = plugin.isPaused() ? 0 : smokingBlock.prewarm(job.smokeWorld, maxTicks);
+			if ((ticks > 0) && logger.isLoggable(Level.FINE))
+				logger.fine("[BlockySmoke] Pre-warmed smoker @ " + smokingBlock.location + " for " + ticks + " ticks (" + smokingBlock.getParticleCount() + " particles)");
+			job.smokeWorld.schedule.schedule(smokingBlock, plugin.getRunCount());
+			// Count a smoker which had nothing to fast-forward as one update,
+			// so that the checks are limited too
+			remaining -= Math.max(ticks, 1);
+		}
+		if (jobs.isEmpty()) {
+			task.cancel();
+			task = null;
+		}
+	}
+
+	private final BlockySmokePlugin plugin;
+	private final Queue<Job> jobs = new ArrayDeque<>();
+	private int maxTicks = 40, budget = 200;
+	private BukkitTask task;
+
+	private static final class Job {
+		Job(SmokeWorld smokeWorld, SmokingBlock smokingBlock) {
+			this.smokeWorld = smokeWorld;
+			this.smokingBlock = smokingBlock;
+		}
+
+		final SmokeWorld smokeWorld;
+		final SmokingBlock smokingBlock;
+	}
+}
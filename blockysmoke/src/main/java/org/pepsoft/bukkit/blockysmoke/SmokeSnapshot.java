@@ -0,0 +1,71 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of all blocky smokers and the extents of their
+ * plumes, published by the plugin once per server tick. Since it never
+ * changes once published, it may be read from any thread without locking.
+ *
+ * @author Pepijn Schmitz
+ */
+public final class SmokeSnapshot {
+	SmokeSnapshot(long tick, Map<String, List<SmokerSnapshot>> smokers) {
+		this.tick = tick;
+		this.smokers = smokers;
+	}
+
+	/**
+	 * Get the plugin's tick counter at the time the snapshot was taken. It
+	 * does not advance while the smokers are paused.
+	 *
+	 * @return The tick at which the snapshot was taken.
+	 */
+	public long getTick() {
+		return tick;
+	}
+
+	/**
+	 * Get the names of the worlds which have smokers.
+	 *
+	 * @return The names of the worlds which have smokers.
+	 */
+	public Set<String> getWorldNames() {
+		return smokers.keySet();
+	}
+
+	/**
+	 * Get the smokers of a world.
+	 *
+	 * @param worldName The name of the world.
+	 * @return The smokers of the world, which is empty if it has none.
+	 */
+	public List<SmokerSnapshot> getSmokers(String worldName) {
+		final List<SmokerSnapshot> smokersOfWorld = smokers.get(worldName);
+		return (smokersOfWorld != null) ? smokersOfWorld : Collections.<SmokerSnapshot>emptyList();
+	}
+
+	private final long tick;
+	final Map<String, List<SmokerSnapshot>> smokers;
+
+	static final SmokeSnapshot EMPTY = new SmokeSnapshot(0, Collections.<String, List<SmokerSnapshot>>emptyMap());
+}
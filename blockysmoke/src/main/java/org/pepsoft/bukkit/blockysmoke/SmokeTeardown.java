@@ -0,0 +1,210 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.command.CommandSender;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Removes the smoke of large numbers of smokers from the world in the
+ * background. The smokers forget their smoke immediately, and the cells are
+ * cleared a limited number per tick, so that pausing or removing all smokers
+ * does not freeze the server.
+ *
+ * <p>Cells are registered with the {@link SmokeWorld} while they are waiting
+ * to be cleared. If a smoker places smoke in such a cell in the mean time,
+ * because smokers were continued or recreated, it claims the cell back and
+ * the smoke is left alone.
+ *
+ * @author Pepijn Schmitz
+ */
+final class SmokeTeardown implements Runnable {
+	SmokeTeardown(BlockySmokePlugin plugin) {
+		this.plugin = plugin;
+	}
+
+	/**
+	 * Set the maximum number of cells to clear per tick.
+	 */
+	void setBudget(int budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Detach the smoke of a number of smokers and queue it for removal.
+	 *
+	 * @param smokeWorld The world in which the smokers are located.
+	 * @param smokingBlocks The smokers of which to remove the smoke.
+	 * @param sender The sender to report progress to.
+	 * @param description A description of the smoke, for the progress
+	 *     reports.
+	 */
+	void add(SmokeWorld smokeWorld, Collection<SmokingBlock> smokingBlocks, CommandSender sender, String description) {
+		final Job job = new Job(smokeWorld, sender, description);
+		for (final SmokingBlock smokingBlock: smokingBlocks) {
+			final Material smokeType = smokingBlock.getSettings().smokeType;
+			for (final IntLocation cell: smokingBlock.detachSmoke(smokeWorld)) {
+				smokeWorld.pendingTeardown.put(cell, smokeType);
+				job.cells.add(cell);
+			}
+			smokingBlock.pack(smokeWorld);
+		}
+		job.total = job.cells.size();
+		jobs.add(job);
+		if (task == null)
+			task = plugin.getServer().getScheduler().runTaskTimer(plugin, this, 1, 1);
+	}
+
+	/**
+	 * Queue smoke which was left behind by a crash for removal. Smoke in
+	 * chunks which are not loaded is set aside in the {@link SmokeWorld} until
+	 * they are, to avoid loading chunks.
+	 *
+	 * @param smokeWorld The world in which the smoke is located.
+	 * @param cells The cells to clear, with the type of smoke to remove.
+	 */
+	void addOrphans(SmokeWorld smokeWorld, Map<IntLocation, Material> cells) {
+		final Job job = new Job(smokeWorld, null, "left behind by a crash");
+		for (final Map.Entry<IntLocation, Material> entry: cells.entrySet()) {
+			final IntLocation cell = entry.getKey();
+			if (smokeWorld.isLoaded(cell)) {
+				smokeWorld.pendingTeardown.put(cell, entry.getValue());
+				job.cells.add(cell);
+			} else
+				smokeWorld.parkOrphan(cell, entry.getValue());
+		}
+		if (! job.cells.isEmpty()) {
+			job.total = job.cells.size();
+			jobs.add(job);
+			if (task == null)
+				task = plugin.getServer().getScheduler().runTaskTimer(plugin, this, 1, 1);
+		}
+	}
+
+	/**
+	 * Immediately clear all queued cells of a world, for instance because
+	 * the world is being unloaded.
+	 *
+	 * @param worldName The name of the world.
+	 */
+	void flush(String worldName) {
+		for (final Iterator<Job> i = jobs.iterator(); i.hasNext(); ) {
+			final Job job = i.next();
+			if (job.smokeWorld.world.getName().equals(worldName)) {
+				job.process(Integer.MAX_VALUE);
+				i.remove();
+				job.finish();
+			}
+		}
+	}
+
+	/**
+	 * Clear the next cells, within the budget. Invoked on the main thread
+	 * every tick while there are cells queued.
+	 */
+	@Override
+	public void run() {
+		int remaining = budget;
+		while ((remaining > 0) && (! jobs.isEmpty())) {
+			final Job job = jobs.peek();
+			remaining -= job.process(remaining);
+			if (job.cells.isEmpty()) {
+				jobs.remove();
+				job.finish();
+			}
+		}
+		if (jobs.isEmpty()) {
+			task.cancel();
+			task = null;
+		} else if (((++ticks % PROGRESS_INTERVAL) == 0) && (jobs.peek().sender != null)) {
+			final Job job = jobs.peek();
+			job.sender.sendMessage(ChatColor.YELLOW + "Removing smoke " + job.description + ": " + (job.total - job.cells.size()) + " of " + job.total + " cells done...");
+		}
+	}
+
+	private final BlockySmokePlugin plugin;
+	private final Queue<Job> jobs = new ArrayDeque<>();
+	private int budget = 2000, ticks;
+	private BukkitTask task;
+
+	/**
+	 * The number of ticks between progress reports.
+	 */
+	private static final int PROGRESS_INTERVAL = 40;
+
+	private static final class Job {
+		Job(SmokeWorld smokeWorld, CommandSender sender, String description) {
+			this.smokeWorld = smokeWorld;
+			this.sender = sender;
+			this.description = description;
+		}
+
+		/**
+		 * Clear at most a number of cells.
+		 *
+		 * @return The number of cells cleared.
+		 */
+		int process(int max) {
+			int count = 0;
+			while ((count < max) && (! cells.isEmpty())) {
+				final IntLocation cell = cells.remove();
+				count++;
+				// The cell may have been claimed by a smoker in the mean
+				// time, or be queued more than once
+				final Material smokeType = smokeWorld.pendingTeardown.remove(cell);
+				if ((smokeType == null) || smokeWorld.isSmoke(cell.x, cell.y, cell.z))
+					continue;
+				if (smokeWorld.isLoaded(cell)) {
+					final BlockAccess blocks = smokeWorld.blocks;
+					smokeWorld.blockReads++;
+					if (blocks.getType(cell.x, cell.y, cell.z) == smokeType) {
+						blocks.setType(cell.x, cell.y, cell.z, Material.AIR);
+						smokeWorld.blockWrites++;
+					}
+					smokeWorld.smokeCleared(cell);
+				} else
+					// The chunk was unloaded while the cell was queued; clear
+					// it when the chunk is next loaded instead
+					smokeWorld.parkOrphan(cell, smokeType);
+			}
+			return count;
+		}
+
+		void finish() {
+			if (sender != null)
+				sender.sendMessage(ChatColor.YELLOW + "Removed smoke " + description + " (" + total + " cells)");
+		}
+
+		final SmokeWorld smokeWorld;
+		/**
+		 * The sender to report progress to, or <code>null</code> if progress
+		 * should not be reported.
+		 */
+		final CommandSender sender;
+		final String description;
+		final Queue<IntLocation> cells = new ArrayDeque<>();
+		int total;
+	}
+}
@@ -0,0 +1,536 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+
+/**
+ * The smoke related state of a single world, which is passed down through
+ * the tick path. Keeps the wind, the schedule of the active smokers, which
+ * chunks are loaded, so that the smoke never causes chunks to be loaded, and
+ * which cells contain smoke, so that block events can be checked against the
+ * smoke cheaply.
+ *
+ * @author Pepijn Schmitz
+ */
+public final class SmokeWorld {
+	public SmokeWorld(World world, WindModel wind, int defaultInterval) {
+		this(world, wind, defaultInterval, null);
+	}
+
+	/**
+	 * @param ledger The ledger in which to record where smoke is placed and
+	 *     cleared, or <code>null</code> if it should not be recorded.
+	 */
+	SmokeWorld(World world, WindModel wind, int defaultInterval, SmokeLedger ledger) {
+		this.world = world;
+		this.wind = wind;
+		this.ledger = ledger;
+		blocks = new WorldBlockAccess(world);
+		schedule = new SmokerSchedule(defaultInterval);
+		for (final Chunk chunk: world.getLoadedChunks())
+			loadedChunks.add(IntLocation.chunkKey(chunk.getX(), chunk.getZ()));
+		inMemory = false;
+	}
+
+	/**
+	 * Create the smoke related state of a world which only exists in memory,
+	 * and in which all chunks are loaded. Such a world has no Bukkit world.
+	 */
+	SmokeWorld(InMemoryWorld blocks, WindModel wind, int defaultInterval) {
+		world = null;
+		this.wind = wind;
+		this.blocks = blocks;
+		ledger = null;
+		schedule = new SmokerSchedule(defaultInterval);
+		inMemory = true;
+	}
+
+	/**
+	 * Determine whether a chunk is loaded, without loading it.
+	 *
+	 * @param chunkX The X coordinate of the chunk.
+	 * @param chunkZ The Z coordinate of the chunk.
+	 * @return <code>true</code> if the chunk is loaded.
+	 */
+	public boolean isChunkLoaded(int chunkX, int chunkZ) {
+		if (inMemory)
+			return true;
+		final long chunkKey = IntLocation.chunkKey(chunkX, chunkZ);
+		if (chunkKey != lastChunkKey) {
+			lastChunkKey = chunkKey;
+			lastChunkLoaded = loadedChunks.contains(chunkKey);
+		}
+		return lastChunkLoaded;
+	}
+
+	/**
+	 * Determine whether the chunk containing a location is loaded, without
+	 * loading it.
+	 *
+	 * @param location The location to check.
+	 * @return <code>true</code> if the chunk containing the location is
+	 * loaded.
+	 */
+	public boolean isLoaded(IntLocation location) {
+		return isChunkLoaded(location.x >> 4, location.z >> 4);
+	}
+
+	void chunkLoaded(int chunkX, int chunkZ) {
+		loadedChunks.add(IntLocation.chunkKey(chunkX, chunkZ));
+		lastChunkKey = NO_CHUNK;
+	}
+
+	/**
+	 * Immediately clear the cells in a chunk which are waiting for the
+	 * {@link SmokeTeardown}, so that the smoke is not saved with the chunk.
+	 * Must be invoked while the chunk is still loaded.
+	 *
+	 * @return The number of cells cleared.
+	 */
+	int clearPendingTeardown(int chunkX, int chunkZ) {
+		if (pendingTeardown.isEmpty())
+			return 0;
+		int cellsCleared = 0;
+		for (final Iterator<Map.Entry<IntLocation, Material>> i = pendingTeardown.entrySet().iterator(); i.hasNext(); ) {
+			final Map.Entry<IntLocation, Material> entry = i.next();
+			final IntLocation cell = entry.getKey();
+			if (((cell.x >> 4) == chunkX) && ((cell.z >> 4) == chunkZ)) {
+				i.remove();
+				if (isSmoke(cell.x, cell.y, cell.z))
+					// Claimed by a smoker in the mean time
+					continue;
+				blockReads++;
+				if (blocks.getType(cell.x, cell.y, cell.z) == entry.getValue()) {
+					blocks.setType(cell.x, cell.y, cell.z, Material.AIR);
+					blockWrites++;
+				}
+				smokeCleared(cell);
+				// The queued cell is skipped by the teardown once it is no
+				// longer pending
+				cellsCleared++;
+			}
+		}
+		return cellsCleared;
+	}
+
+	void chunkUnloaded(int chunkX, int chunkZ) {
+		final long chunkKey = IntLocation.chunkKey(chunkX, chunkZ);
+		loadedChunks.remove(chunkKey);
+		clearHeights.remove(chunkKey);
+		smokeSections.remove(chunkKey);
+		if (! sharedClaims.isEmpty())
+			sharedClaims.keySet().removeIf(cell -> ((cell.x >> 4) == chunkX) && ((cell.z >> 4) == chunkZ));
+		lastChunkKey = NO_CHUNK;
+		lastHeightsKey = NO_CHUNK;
+	}
+
+	/**
+	 * Record that a smoker has smoke in a cell, which it either placed or
+	 * found there. The plumes of several smokers may share a cell; each of
+	 * them claims it, and it must be released by all of them, with
+	 * {@link #smokeReleased(IntLocation)}, before the smoke may be removed.
+	 */
+	void smokePlaced(IntLocation cell, Material type) {
+		final long chunkKey = IntLocation.chunkKey(cell.x >> 4, cell.z >> 4);
+		SmokeSections sections = smokeSections.get(chunkKey);
+		if (sections == null) {
+			sections = new SmokeSections(blocks.getMaxHeight() >> 4);
+			smokeSections.put(chunkKey, sections);
+		}
+		if (sections.set(cell.x, cell.y, cell.z)) {
+			if (ledger != null)
+				ledger.placed(cell, type);
+		} else {
+			final Integer otherClaims = sharedClaims.get(cell);
+			sharedClaims.put(cell, (otherClaims != null) ? otherClaims + 1 : 1);
+		}
+	}
+
+	/**
+	 * Release the claim of a smoker on a cell, because its plume no longer
+	 * occupies it.
+	 *
+	 * @return <code>true</code> if this was the last claim, in which case the
+	 * caller is responsible for removing the smoke and then invoking
+	 * {@link #smokeCleared(IntLocation)}, or <code>false</code> if another
+	 * smoker still has smoke in the cell and it must be left alone.
+	 */
+	boolean smokeReleased(IntLocation cell) {
+		if (! sharedClaims.isEmpty()) {
+			final Integer otherClaims = sharedClaims.get(cell);
+			if (otherClaims != null) {
+				if (otherClaims > 1)
+					sharedClaims.put(cell, otherClaims - 1);
+				else
+					sharedClaims.remove(cell);
+				return false;
+			}
+		}
+		final long chunkKey = IntLocation.chunkKey(cell.x >> 4, cell.z >> 4);
+		final SmokeSections sections = smokeSections.get(chunkKey);
+		if ((sections != null) && sections.clear(cell.x, cell.y, cell.z))
+			smokeSections.remove(chunkKey);
+		return true;
+	}
+
+	/**
+	 * Record that smoke has been cleared from a cell, or that it is no longer
+	 * the responsibility of the smoke. Must not be invoked for cells which
+	 * are still claimed by a smoker.
+	 */
+	void smokeCleared(IntLocation cell) {
+		if (ledger != null)
+			ledger.cleared(cell);
+		final long chunkKey = IntLocation.chunkKey(cell.x >> 4, cell.z >> 4);
+		final SmokeSections sections = smokeSections.get(chunkKey);
+		if ((sections != null) && sections.clear(cell.x, cell.y, cell.z))
+			smokeSections.remove(chunkKey);
+	}
+
+	/**
+	 * Set aside smoke in a chunk which is not loaded, so that it is removed
+	 * by the {@link SmokeTeardown} when the chunk is next loaded, rather than
+	 * loading the chunk now. The smoke stays in the ledger until then.
+	 *
+	 * @param cell The cell containing the smoke.
+	 * @param type The type of smoke to remove.
+	 */
+	void parkOrphan(IntLocation cell, Material type) {
+		final long chunkKey = IntLocation.chunkKey(cell.x >> 4, cell.z >> 4);
+		Map<IntLocation, Material> cellsInChunk = orphanedSmoke.get(chunkKey);
+		if (cellsInChunk == null) {
+			cellsInChunk = new HashMap<>();
+			orphanedSmoke.put(chunkKey, cellsInChunk);
+		}
+		cellsInChunk.put(cell, type);
+	}
+
+	/**
+	 * Determine whether a block contains smoke placed by the smokers of this
+	 * world, without reading the world. Takes constant time, and for blocks
+	 * in chunk sections without smoke only a single map lookup.
+	 *
+	 * @param x The X coordinate of the block.
+	 * @param y The Y coordinate of the block.
+	 * @param z The Z coordinate of the block.
+	 * @return <code>true</code> if the block contains smoke.
+	 */
+	public boolean isSmoke(int x, int y, int z) {
+		final SmokeSections sections = smokeSections.get(IntLocation.chunkKey(x >> 4, z >> 4));
+		return (sections != null) && sections.get(x, y, z);
+	}
+
+	/**
+	 * Determine whether a location is in open sky: whether no terrain or
+	 * builds have been found or placed at or above it in its column, so that
+	 * it can only contain air, or smoke placed by the smokers, without having
+	 * to look. Smoke is not included, since it comes and goes; use
+	 * {@link #isSmoke(int, int, int)} for that. The heights are read from the
+	 * world the first time a chunk is consulted, and afterwards only ever
+	 * raised by {@link #blockChanged(int, int, int)}, so they may err on the
+	 * high side but never on the low side, until the chunk is unloaded. Must
+	 * only be invoked for locations in loaded chunks.
+	 *
+	 * @param location The location to check.
+	 * @return <code>true</code> if the location is known to contain air or
+	 *     smoke placed by the smokers.
+	 */
+	boolean isOpenSky(IntLocation location) {
+		final int chunkX = location.x >> 4, chunkZ = location.z >> 4;
+		final long chunkKey = IntLocation.chunkKey(chunkX, chunkZ);
+		if (chunkKey != lastHeightsKey) {
+			int[] heights = clearHeights.get(chunkKey);
+			if (heights == null) {
+				heights = new int[256];
+				blocks.getClearHeights(chunkX, chunkZ, heights);
+				clearHeights.put(chunkKey, heights);
+			}
+			lastHeightsKey = chunkKey;
+			lastHeights = heights;
+		}
+		return location.y >= lastHeights[((location.z & 0xf) << 4) | (location.x & 0xf)];
+	}
+
+	/**
+	 * Record that a block may have been changed to something other than air
+	 * by an event, so that it is no longer considered to be in open sky. Not
+	 * to be invoked for smoke placed by the smokers, which is tracked by
+	 * {@link #smokePlaced(IntLocation, Material)} instead.
+	 *
+	 * @param x The X coordinate of the block.
+	 * @param y The Y coordinate of the block.
+	 * @param z The Z coordinate of the block.
+	 */
+	void blockChanged(int x, int y, int z) {
+		final int[] heights = clearHeights.get(IntLocation.chunkKey(x >> 4, z >> 4));
+		if (heights != null) {
+			final int index = ((z & 0xf) << 4) | (x & 0xf);
+			if (y >= heights[index])
+				heights[index] = y + 1;
+		}
+	}
+
+	public final World world;
+	public final WindModel wind;
+	final BlockAccess blocks;
+	final SmokerSchedule schedule;
+	/**
+	 * The ledger in which placed and cleared smoke is recorded, or
+	 * <code>null</code> if it is not recorded.
+	 */
+	final SmokeLedger ledger;
+	/**
+	 * The number of blocks read and written by the smoke of this world, for
+	 * benchmarking.
+	 */
+	long blockReads, blockWrites;
+	/**
+	 * Include a smoker which has been added to this world in the running
+	 * totals of the memory used by the smokers of this world. See
+	 * {@link MemoryReport}.
+	 */
+	void smokerAdded(SmokingBlock smokingBlock) {
+		smokingBlock.counted = true;
+		smokingBlock.countedUnpacked = false;
+		smokingBlock.countedParticles = 0;
+		smokingBlock.countedOccupancy = 0;
+		smokingBlock.countedDirty = 0;
+		if (smokingBlock.isEmitter())
+			emitterCellCount += smokingBlock.getEmitterCells().size();
+		smokerChanged(smokingBlock);
+	}
+
+	/**
+	 * Remove a smoker which has been removed from this world from the running
+	 * totals.
+	 */
+	void smokerRemoved(SmokingBlock smokingBlock) {
+		if (! smokingBlock.counted)
+			return;
+		if (smokingBlock.isEmitter())
+			emitterCellCount -= smokingBlock.getEmitterCells().size();
+		if (smokingBlock.countedUnpacked)
+			unpackedCount--;
+		if (smokingBlock.countedParticles > 0)
+			plumeCount--;
+		particleCount -= smokingBlock.countedParticles;
+		occupancyCount -= smokingBlock.countedOccupancy;
+		dirtyCellCount -= smokingBlock.countedDirty;
+		smokingBlock.counted = false;
+	}
+
+	/**
+	 * Bring the running totals up to date with the current state of a
+	 * smoker.
+	 */
+	void smokerChanged(SmokingBlock smokingBlock) {
+		final boolean unpacked = ! smokingBlock.isPacked();
+		if (unpacked != smokingBlock.countedUnpacked) {
+			unpackedCount += unpacked ? 1 : -1;
+			smokingBlock.countedUnpacked = unpacked;
+		}
+		final int particles = smokingBlock.getParticleCount(), occupancy = smokingBlock.getOccupancyCount(), dirty = smokingBlock.getDirtyCellCount();
+		if ((particles > 0) != (smokingBlock.countedParticles > 0))
+			plumeCount += (particles > 0) ? 1 : -1;
+		particleCount += particles - smokingBlock.countedParticles;
+		occupancyCount += occupancy - smokingBlock.countedOccupancy;
+		dirtyCellCount += dirty - smokingBlock.countedDirty;
+		smokingBlock.countedParticles = particles;
+		smokingBlock.countedOccupancy = occupancy;
+		smokingBlock.countedDirty = dirty;
+	}
+
+	/**
+	 * Whether the state of any of the smokers of this world has changed since
+	 * the last snapshot was published. See
+	 * {@link BlockySmokePlugin#getSnapshot()}.
+	 */
+	boolean snapshotStale;
+	/**
+	 * Running totals over the smokers of this world, kept up to date by
+	 * {@link #smokerAdded(SmokingBlock)}, {@link #smokerRemoved(SmokingBlock)}
+	 * and {@link #smokerChanged(SmokingBlock)}, so that the memory use can be
+	 * estimated without visiting every smoker. The plume count is the number
+	 * of smokers with particles.
+	 */
+	int emitterCellCount, unpackedCount, plumeCount, occupancyCount, dirtyCellCount;
+	long particleCount;
+	/**
+	 * Whether the smokers should time the phases of their ticks, and the
+	 * totals of the current tick, for the flight recorder events. See
+	 * {@link SmokeEvents}.
+	 */
+	boolean timePhases;
+	long spawnTime, propagateTime, reconcileTime, particlesTicked;
+	int smokersTicked;
+	/**
+	 * The cells of which the smoke is waiting to be removed by the
+	 * {@link SmokeTeardown}, with the type of smoke to remove. Smokers claim
+	 * a cell back by removing it when they place smoke in it.
+	 */
+	final Map<IntLocation, Material> pendingTeardown = new HashMap<>();
+	/**
+	 * Smoke which was left behind by a crash in chunks which were not loaded
+	 * when it was found, by chunk key, with the type of smoke to remove. It
+	 * is handed to the {@link SmokeTeardown} when the chunk is loaded.
+	 */
+	final Map<Long, Map<IntLocation, Material>> orphanedSmoke = new HashMap<>();
+
+	private final Set<Long> loadedChunks = new HashSet<>();
+	private long lastChunkKey = NO_CHUNK;
+	private boolean lastChunkLoaded;
+	/**
+	 * Per chunk, the height from which each column contains only air.
+	 */
+	private final Map<Long, int[]> clearHeights = new HashMap<>();
+	private long lastHeightsKey = NO_CHUNK;
+	private int[] lastHeights;
+	/**
+	 * Per chunk which contains smoke, which of its cells contain smoke.
+	 */
+	private final Map<Long, SmokeSections> smokeSections = new HashMap<>();
+	/**
+	 * For cells which are claimed by more than one smoker, the number of
+	 * claims besides the first one. Cells which are claimed once are only
+	 * recorded in {@link #smokeSections}.
+	 */
+	private final Map<IntLocation, Integer> sharedClaims = new HashMap<>();
+	private final boolean inMemory;
+
+	/**
+	 * A chunk key which cannot occur in practice, since it lies far outside
+	 * the world border.
+	 */
+	private static final long NO_CHUNK = Long.MIN_VALUE;
+
+	/**
+	 * A bit for every cell of a chunk which contains smoke, by section of
+	 * sixteen blocks high. Only the sections which contain smoke have bits.
+	 */
+	private static final class SmokeSections {
+		SmokeSections(int sectionCount) {
+			bits = new long[sectionCount][];
+			counts = new int[sectionCount];
+		}
+
+		boolean get(int x, int y, int z) {
+			final int section = y >> 4;
+			if ((section < 0) || (section >= bits.length) || (bits[section] == null))
+				return false;
+			final int index = index(x, y, z);
+			return (bits[section][index >> 6] & (1L << index)) != 0;
+		}
+
+		/**
+		 * @return <code>true</code> if the cell did not contain smoke yet.
+		 */
+		boolean set(int x, int y, int z) {
+			final int section = y >> 4;
+			if ((section < 0) || (section >= bits.length))
+				return true;
+			if (bits[section] == null)
+				bits[section] = new long[64];
+			final int index = index(x, y, z);
+			final long mask = 1L << index;
+			if ((bits[section][index >> 6] & mask) == 0) {
+				bits[section][index >> 6] |= mask;
+				counts[section]++;
+				total++;
+				return true;
+			} else
+				return false;
+		}
+
+		/**
+		 * @return <code>true</code> if the chunk no longer contains smoke.
+		 */
+		boolean clear(int x, int y, int z) {
+			final int section = y >> 4;
+			if ((section >= 0) && (section < bits.length) && (bits[section] != null)) {
+				final int index = index(x, y, z);
+				final long mask = 1L << index;
+				if ((bits[section][index >> 6] & mask) != 0) {
+					bits[section][index >> 6] &= ~mask;
+					if (--counts[section] == 0)
+						bits[section] = null;
+					total--;
+				}
+			}
+			return total == 0;
+		}
+
+		private static int index(int x, int y, int z) {
+			return ((y & 0xf) << 8) | ((z & 0xf) << 4) | (x & 0xf);
+		}
+
+		private final long[][] bits;
+		private final int[] counts;
+		private int total;
+	}
+
+	/**
+	 * Access to the blocks of a Bukkit world.
+	 */
+	private static final class WorldBlockAccess implements BlockAccess {
+		WorldBlockAccess(World world) {
+			this.world = world;
+		}
+
+		@Override
+		public Material getType(int x, int y, int z) {
+			return world.getBlockAt(x, y, z).getType();
+		}
+
+		@Override
+		public void setType(int x, int y, int z, Material type) {
+			world.getBlockAt(x, y, z).setType(type, false);
+		}
+
+		@Override
+		public int getMaxHeight() {
+			return world.getMaxHeight();
+		}
+
+		@Override
+		@SuppressWarnings("deprecation") // Snapshots can only be read by type ID in this version of Bukkit
+		public void getClearHeights(int chunkX, int chunkZ, int[] heights) {
+			final ChunkSnapshot snapshot = world.getChunkAt(chunkX, chunkZ).getChunkSnapshot();
+			int topSection = (world.getMaxHeight() >> 4) - 1;
+			while ((topSection >= 0) && snapshot.isSectionEmpty(topSection))
+				topSection--;
+			for (int z = 0; z < 16; z++)
+				for (int x = 0; x < 16; x++) {
+					int y = (topSection + 1) << 4;
+					while ((y > 0) && (snapshot.getBlockTypeId(x, y - 1, z) == 0))
+						y--;
+					heights[(z << 4) | x] = y;
+				}
+		}
+
+		private final World world;
+	}
+}
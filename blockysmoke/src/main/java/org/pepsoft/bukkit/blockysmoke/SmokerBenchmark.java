@@ -0,0 +1,156 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import static org.pepsoft.bukkit.blockysmoke.BlockySmokePlugin.logger;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * A benchmark which runs a number of synthetic smokers for a number of server
+ * ticks, separately from the regular smokers, and reports what they cost.
+ * The smokers are run by a {@link SmokeEngine}, so that the engines can be
+ * compared in a live world. They are not registered or saved, and their
+ * smoke is removed afterwards. The chunks which the smoke can reach are held
+ * loaded by the plugin while the benchmark runs; see
+ * {@link #holdsChunk(String, int, int)}.
+ *
+ * @author Pepijn Schmitz
+ */
+final class SmokerBenchmark implements Runnable {
+	/**
+	 * @param smokerCount The number of smokers which have been added to the
+	 *     engine, for the report.
+	 * @param chunks The keys of the chunks which the smoke can reach, which
+	 *     must be loaded.
+	 */
+	SmokerBenchmark(BlockySmokePlugin plugin, CommandSender sender, String worldName, SmokeWorld smokeWorld, SmokeEngine engine, int smokerCount, Set<Long> chunks, int ticks) {
+		this.plugin = plugin;
+		this.sender = sender;
+		this.worldName = worldName;
+		this.smokeWorld = smokeWorld;
+		this.engine = engine;
+		this.smokerCount = smokerCount;
+		this.chunks = chunks;
+		this.ticks = ticks;
+		tickCosts = new long[ticks];
+	}
+
+	void start() {
+		task = plugin.getServer().getScheduler().runTaskTimer(plugin, this, 1, 1);
+	}
+
+	boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * Determine whether a chunk must be kept loaded for this benchmark.
+	 */
+	boolean holdsChunk(String worldName, int chunkX, int chunkZ) {
+		return (! done) && this.worldName.equals(worldName) && chunks.contains(IntLocation.chunkKey(chunkX, chunkZ));
+	}
+
+	String getWorldName() {
+		return worldName;
+	}
+
+	/**
+	 * Stop the benchmark without reporting, and remove its smoke.
+	 */
+	void abort() {
+		if (! done) {
+			task.cancel();
+			cleanUp();
+			sender.sendMessage(ChatColor.RED + "Benchmark aborted after " + tick + " ticks");
+		}
+	}
+
+	/**
+	 * Run the smokers which are due on the next tick. Invoked on the main
+	 * thread every tick.
+	 */
+	@Override
+	public void run() {
+		final long readsBefore = smokeWorld.blockReads, writesBefore = smokeWorld.blockWrites;
+		final long start = System.nanoTime();
+		engine.tick(smokeWorld);
+		tickCosts[tick++] = System.nanoTime() - start;
+		blockReads += smokeWorld.blockReads - readsBefore;
+		blockWrites += smokeWorld.blockWrites - writesBefore;
+		final long[] particleCount = {0};
+		engine.visitParticles((source, particle) -> particleCount[0]++);
+		final long particles = particleCount[0];
+		totalParticles += particles;
+		peakParticles = Math.max(peakParticles, particles);
+		if (tick == ticks) {
+			task.cancel();
+			cleanUp();
+			report();
+		}
+	}
+
+	private void cleanUp() {
+		engine.removeSmoke(smokeWorld);
+		done = true;
+	}
+
+	private void report() {
+		final long[] sortedCosts = tickCosts.clone();
+		Arrays.sort(sortedCosts);
+		long totalCost = 0;
+		for (final long cost: sortedCosts)
+			totalCost += cost;
+		final String[] lines = {
+			"Benchmark of " + smokerCount + " blocky smokers with the " + engine + " engine over " + ticks + " ticks:",
+			"  Tick cost: mean " + formatMillis(totalCost / ticks) + ", p50 " + formatMillis(percentile(sortedCosts, 50)) + ", p90 " + formatMillis(percentile(sortedCosts, 90)) + ", p99 " + formatMillis(percentile(sortedCosts, 99)) + ", max " + formatMillis(sortedCosts[ticks - 1]),
+			"  Particles: mean " + (totalParticles / ticks) + ", peak " + peakParticles,
+			"  Block reads: " + blockReads + " (" + (blockReads / ticks) + " per tick), block writes: " + blockWrites + " (" + (blockWrites / ticks) + " per tick)" + ((engine instanceof ReferenceEngine) ? " (not counted by the reference engine)" : "")
+		};
+		for (final String line: lines) {
+			logger.info("[BlockySmoke] " + line);
+			sender.sendMessage(ChatColor.YELLOW + line);
+		}
+	}
+
+	private static long percentile(long[] sortedValues, int percentile) {
+		return sortedValues[Math.min((int) Math.ceil(sortedValues.length * percentile / 100.0) - 1, sortedValues.length - 1)];
+	}
+
+	private static String formatMillis(long nanos) {
+		return String.format("%.3f ms", nanos / 1000000.0);
+	}
+
+	private final BlockySmokePlugin plugin;
+	private final CommandSender sender;
+	private final String worldName;
+	private final SmokeWorld smokeWorld;
+	private final SmokeEngine engine;
+	private final int smokerCount;
+	private final Set<Long> chunks;
+	private final int ticks;
+	private final long[] tickCosts;
+	private BukkitTask task;
+	private int tick;
+	private long blockReads, blockWrites, totalParticles, peakParticles;
+	private boolean done;
+}
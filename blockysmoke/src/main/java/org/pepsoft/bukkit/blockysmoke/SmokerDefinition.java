@@ -0,0 +1,117 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import java.util.List;
+
+import org.bukkit.Material;
+
+/**
+ * The definition of a single blocky smoker, as exchanged through the
+ * line-oriented export format. Each line consists of the following fields,
+ * separated by tabs:
+ *
+ * <pre>world x y z blockType smokeType densityMin densityMax decayChance maxDistance windFrom windTo randomSpread [profile [interval phase [emitter [gate]]]]</pre>
+ *
+ * <p>Where a random wind direction is indicated by a dash for
+ * <code>windFrom</code> and <code>windTo</code>. The settings are the
+ * effective settings of the smoker; the optional profile field indicates the
+ * profile to link the smoker to on import, if it exists. An interval of 0
+ * indicates the default interval, and a phase of -1 an automatic phase. The
+ * emitter field contains the cells of an emitter in the <code>list:</code>
+ * form of {@link EmitterShapes}, or a dash if the smoker is not an emitter.
+ * The gate field contains the name of a {@link SmokerGate}.
+ * Empty lines and lines starting with a hash sign are ignored.
+ *
+ * @author Pepijn Schmitz
+ */
+final class SmokerDefinition {
+	SmokerDefinition(String worldName, IntLocation location, Material blockType, SmokerSettings settings, String profileName, List<IntLocation> emitterCells) {
+		this.worldName = worldName;
+		this.location = location;
+		this.blockType = blockType;
+		this.settings = settings;
+		this.profileName = profileName;
+		this.emitterCells = emitterCells;
+	}
+
+	SmokerDefinition(String worldName, SmokingBlock smokingBlock) {
+		this(worldName, smokingBlock.location, smokingBlock.blockType, smokingBlock.getSettings(), smokingBlock.getProfileName(), smokingBlock.isEmitter() ? smokingBlock.getEmitterCells() : null);
+	}
+
+	String toLine() {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(worldName).append('\t');
+		sb.append(location.x).append('\t').append(location.y).append('\t').append(location.z).append('\t');
+		sb.append(blockType.name()).append('\t');
+		sb.append(settings.smokeType.name()).append('\t');
+		sb.append(settings.densityMin).append('\t').append(settings.densityMax).append('\t');
+		sb.append(settings.decayChance).append('\t');
+		sb.append(settings.maxDistance).append('\t');
+		sb.append((settings.fromDirection != null) ? settings.fromDirection.name() : "-").append('\t');
+		sb.append((settings.toDirection != null) ? settings.toDirection.name() : "-").append('\t');
+		sb.append(settings.randomSpread).append('\t');
+		sb.append((profileName != null) ? profileName : "-").append('\t');
+		sb.append(settings.interval).append('\t');
+		sb.append(settings.phase).append('\t');
+		sb.append((emitterCells != null) ? EmitterShapes.toSpec(emitterCells, location) : "-").append('\t');
+		sb.append(settings.gate.name());
+		return sb.toString();
+	}
+
+	/**
+	 * Parse a line in the export format.
+	 *
+	 * @param line The line to parse.
+	 * @return The parsed definition, or <code>null</code> if the line is empty
+	 * or a comment.
+	 * @throws IllegalArgumentException If the line is not a valid smoker
+	 * definition.
+	 */
+	static SmokerDefinition parse(String line) {
+		if (line.trim().isEmpty() || line.startsWith("#"))
+			return null;
+		final String[] fields = line.split("\t");
+		if ((fields.length != FIELD_COUNT) && (fields.length != FIELD_COUNT + 1) && (fields.length != FIELD_COUNT + 3) && (fields.length != FIELD_COUNT + 4) && (fields.length != FIELD_COUNT + 5))
+			throw new IllegalArgumentException("Expected " + FIELD_COUNT + ", " + (FIELD_COUNT + 1) + ", " + (FIELD_COUNT + 3) + ", " + (FIELD_COUNT + 4) + " or " + (FIELD_COUNT + 5) + " fields but found " + fields.length);
+		final IntLocation location = new IntLocation(Integer.parseInt(fields[1].trim()), Integer.parseInt(fields[2].trim()), Integer.parseInt(fields[3].trim()));
+		final Material blockType = Material.valueOf(fields[4].trim());
+		final WindDirection fromDirection = fields[10].trim().equals("-") ? null : WindDirection.valueOf(fields[10].trim());
+		final WindDirection toDirection = fields[11].trim().equals("-") ? null : WindDirection.valueOf(fields[11].trim());
+		int interval = SmokerSettings.DEFAULT_INTERVAL, phase = SmokerSettings.AUTO_PHASE;
+		if (fields.length > FIELD_COUNT + 1) {
+			interval = Integer.parseInt(fields[FIELD_COUNT + 1].trim());
+			phase = Integer.parseInt(fields[FIELD_COUNT + 2].trim());
+		}
+		final SmokerGate gate = (fields.length > FIELD_COUNT + 4) ? SmokerGate.valueOf(fields[FIELD_COUNT + 4].trim()) : SmokerGate.NONE;
+		final SmokerSettings settings = new SmokerSettings(Material.valueOf(fields[5].trim()), Integer.parseInt(fields[6].trim()), Integer.parseInt(fields[7].trim()), Float.parseFloat(fields[8].trim()), Integer.parseInt(fields[9].trim()), fromDirection, toDirection, Boolean.parseBoolean(fields[12].trim()), interval, phase, gate);
+		final String profileName = (fields.length > FIELD_COUNT) ? fields[FIELD_COUNT].trim() : "-";
+		final String emitterSpec = (fields.length > FIELD_COUNT + 3) ? fields[FIELD_COUNT + 3].trim() : "-";
+		return new SmokerDefinition(fields[0], location, blockType, settings, profileName.equals("-") ? null : profileName, emitterSpec.equals("-") ? null : EmitterShapes.parse(emitterSpec, location));
+	}
+
+	final String worldName;
+	final IntLocation location;
+	final Material blockType;
+	final SmokerSettings settings;
+	final String profileName;
+	final List<IntLocation> emitterCells;
+
+	static final String HEADER = "# world\tx\ty\tz\tblockType\tsmokeType\tdensityMin\tdensityMax\tdecayChance\tmaxDistance\twindFrom\twindTo\trandomSpread\tprofile\tinterval\tphase\temitter\tgate";
+
+	private static final int FIELD_COUNT = 13;
+}
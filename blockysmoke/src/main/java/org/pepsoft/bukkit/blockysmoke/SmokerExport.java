@@ -0,0 +1,78 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import static org.pepsoft.bukkit.blockysmoke.BlockySmokePlugin.logger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.logging.Level;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+/**
+ * An export of smoker definitions to a file in the export format. The caller
+ * captures the definitions of the smokers on the main thread; since they do
+ * not refer to the live smokers they can then be streamed to the file on a
+ * background thread.
+ *
+ * @author Pepijn Schmitz
+ */
+final class SmokerExport implements Runnable {
+	SmokerExport(BlockySmokePlugin plugin, CommandSender sender, File file, List<SmokerDefinition> definitions) {
+		this.plugin = plugin;
+		this.sender = sender;
+		this.file = file;
+		this.definitions = definitions;
+	}
+
+	void start() {
+		plugin.getServer().getScheduler().runTaskAsynchronously(plugin, this);
+	}
+
+	@Override
+	public void run() {
+		int count = 0;
+		String message;
+		try (BufferedWriter out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+			out.write(SmokerDefinition.HEADER);
+			out.newLine();
+			for (final SmokerDefinition definition: definitions) {
+				out.write(definition.toLine());
+				out.newLine();
+				count++;
+			}
+			message = ChatColor.YELLOW + "Exported " + count + " blocky smokers to " + file.getName();
+		} catch (final IOException e) {
+			logger.log(Level.SEVERE, "[BlockySmoke] I/O error while exporting smoke blocks to " + file.getAbsolutePath(), e);
+			message = ChatColor.RED + "I/O error while writing " + file.getName() + " (" + e.getMessage() + "); export incomplete";
+		}
+		final String finalMessage = message;
+		if (plugin.isEnabled())
+			plugin.getServer().getScheduler().runTask(plugin, () -> sender.sendMessage(finalMessage));
+	}
+
+	private final BlockySmokePlugin plugin;
+	private final CommandSender sender;
+	private final File file;
+	private final List<SmokerDefinition> definitions;
+}
@@ -0,0 +1,36 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+/**
+ * What determines whether a blocky smoker emits smoke.
+ *
+ * @author Pepijn Schmitz
+ */
+public enum SmokerGate {
+	/**
+	 * The smoker always emits smoke.
+	 */
+	NONE,
+
+	/**
+	 * The smoker only emits smoke while its source block is powered by
+	 * redstone. While it is not, and its smoke has dissipated, it is not
+	 * updated at all.
+	 */
+	REDSTONE
+}
@@ -0,0 +1,150 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import static org.pepsoft.bukkit.blockysmoke.BlockySmokePlugin.logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.bukkit.ChatColor;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * An import of smoker definitions from a file in the export format. The file
+ * is read and parsed on a background thread, and the definitions are handed
+ * to the main thread through a bounded queue, where they are inserted in
+ * chunks of at most {@link #BATCH_SIZE} per tick.
+ *
+ * @author Pepijn Schmitz
+ */
+final class SmokerImport implements Runnable {
+	SmokerImport(BlockySmokePlugin plugin, CommandSender sender, File file) {
+		this.plugin = plugin;
+		this.sender = sender;
+		this.file = file;
+	}
+
+	void start() {
+		plugin.getServer().getScheduler().runTaskAsynchronously(plugin, this::read);
+		task = plugin.getServer().getScheduler().runTaskTimer(plugin, this, 1, 1);
+	}
+
+	boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * Insert the next chunk of definitions. Invoked on the main thread every
+	 * tick.
+	 */
+	@Override
+	public void run() {
+		final Map<String, List<SmokingBlock>> batch = new HashMap<>();
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			final SmokerDefinition definition = queue.poll();
+			if (definition == null)
+				break;
+			List<SmokingBlock> smokingBlocks = batch.get(definition.worldName);
+			if (smokingBlocks == null) {
+				smokingBlocks = new ArrayList<>();
+				batch.put(definition.worldName, smokingBlocks);
+			}
+			smokingBlocks.add(plugin.newSmokingBlock(definition.location, definition.blockType, definition.profileName, definition.settings, definition.emitterCells));
+		}
+		for (final Map.Entry<String, List<SmokingBlock>> entry: batch.entrySet()) {
+			final World world = plugin.getServer().getWorld(entry.getKey());
+			if (world != null) {
+				imported += plugin.putSmokers(world, entry.getValue());
+				touchedWorlds.add(entry.getKey());
+			} else
+				skipped += entry.getValue().size();
+		}
+		if (readerDone && queue.isEmpty()) {
+			task.cancel();
+			for (final String worldName: touchedWorlds)
+				plugin.saveWorld(worldName);
+			if (ioException != null)
+				sender.sendMessage(ChatColor.RED + "I/O error while reading " + file.getName() + " (" + ioException.getMessage() + "); import aborted after " + imported + " blocky smokers");
+			else
+				sender.sendMessage(ChatColor.YELLOW + "Imported " + imported + " blocky smokers from " + file.getName() + ((skipped > 0) ? ("; skipped " + skipped + " for worlds that are not loaded") : "") + ((invalidLines > 0) ? ("; " + invalidLines + " invalid lines ignored") : ""));
+			done = true;
+		} else if ((imported / PROGRESS_INTERVAL) > lastProgressReport) {
+			lastProgressReport = imported / PROGRESS_INTERVAL;
+			sender.sendMessage(ChatColor.YELLOW + "Imported " + imported + " blocky smokers so far...");
+		}
+	}
+
+	private void read() {
+		try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			int lineNumber = 0;
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				final SmokerDefinition definition;
+				try {
+					definition = SmokerDefinition.parse(line);
+				} catch (final IllegalArgumentException e) {
+					invalidLines++;
+					logger.warning("[BlockySmoke] Ignoring invalid smoker definition on line " + lineNumber + " of " + file.getName() + " (" + e.getMessage() + ")");
+					continue;
+				}
+				if (definition != null)
+					while (! queue.offer(definition, 1, TimeUnit.SECONDS))
+						if (! plugin.isEnabled())
+							return;
+			}
+		} catch (final IOException e) {
+			logger.log(Level.SEVERE, "[BlockySmoke] I/O error while importing smoke blocks from " + file.getAbsolutePath(), e);
+			ioException = e;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			readerDone = true;
+		}
+	}
+
+	private final BlockySmokePlugin plugin;
+	private final CommandSender sender;
+	private final File file;
+	private final BlockingQueue<SmokerDefinition> queue = new ArrayBlockingQueue<>(BATCH_SIZE * 4);
+	private final Set<String> touchedWorlds = new HashSet<>();
+	private BukkitTask task;
+	private int imported, skipped, lastProgressReport;
+	private boolean done;
+	private volatile boolean readerDone;
+	private volatile int invalidLines;
+	private volatile IOException ioException;
+
+	static final int BATCH_SIZE = 1000;
+	private static final int PROGRESS_INTERVAL = 10000;
+}
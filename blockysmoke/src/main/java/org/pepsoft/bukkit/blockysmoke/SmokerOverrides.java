@@ -0,0 +1,122 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import java.io.Serializable;
+
+import org.bukkit.Material;
+
+/**
+ * The settings in which a single smoker deviates from its profile. Settings
+ * which are <code>null</code> are taken from the profile.
+ *
+ * @author Pepijn Schmitz
+ */
+final class SmokerOverrides implements Serializable {
+	private SmokerOverrides(Material smokeType, Integer densityMin, Integer densityMax, Float decayChance, Integer maxDistance, boolean windOverridden, WindDirection fromDirection, WindDirection toDirection, Boolean randomSpread, Integer interval, Integer phase, SmokerGate gate) {
+		this.smokeType = smokeType;
+		this.densityMin = densityMin;
+		this.densityMax = densityMax;
+		this.decayChance = decayChance;
+		this.maxDistance = maxDistance;
+		this.windOverridden = windOverridden;
+		this.fromDirection = fromDirection;
+		this.toDirection = toDirection;
+		this.randomSpread = randomSpread;
+		this.interval = interval;
+		this.phase = phase;
+		this.gate = gate;
+	}
+
+	/**
+	 * Apply these overrides to the settings of a profile. If the profile has
+	 * changed such that the minimum density would exceed the maximum density,
+	 * the maximum density is raised.
+	 *
+	 * @param base The settings of the profile.
+	 * @return The effective settings.
+	 */
+	SmokerSettings apply(SmokerSettings base) {
+		final int myDensityMin = (densityMin != null) ? densityMin : base.densityMin;
+		final int myDensityMax = (densityMax != null) ? densityMax : base.densityMax;
+		return new SmokerSettings((smokeType != null) ? smokeType : base.smokeType,
+			myDensityMin,
+			Math.max(myDensityMin, myDensityMax),
+			(decayChance != null) ? decayChance : base.decayChance,
+			(maxDistance != null) ? maxDistance : base.maxDistance,
+			windOverridden ? fromDirection : base.fromDirection,
+			windOverridden ? toDirection : base.toDirection,
+			(randomSpread != null) ? randomSpread : base.randomSpread,
+			(interval != null) ? interval : base.interval,
+			(phase != null) ? phase : base.phase,
+			(gate != null) ? gate : base.gate);
+	}
+
+	/**
+	 * Determine in which settings a smoker deviates from its profile.
+	 *
+	 * @param base The settings of the profile.
+	 * @param effective The effective settings of the smoker.
+	 * @return The overrides, or <code>null</code> if the effective settings
+	 * are the same as those of the profile.
+	 */
+	static SmokerOverrides diff(SmokerSettings base, SmokerSettings effective) {
+		final boolean windOverridden = (effective.fromDirection != base.fromDirection) || (effective.toDirection != base.toDirection);
+		final SmokerOverrides overrides = new SmokerOverrides((effective.smokeType != base.smokeType) ? effective.smokeType : null,
+			(effective.densityMin != base.densityMin) ? effective.densityMin : null,
+			(effective.densityMax != base.densityMax) ? effective.densityMax : null,
+			(effective.decayChance != base.decayChance) ? effective.decayChance : null,
+			(effective.maxDistance != base.maxDistance) ? effective.maxDistance : null,
+			windOverridden,
+			windOverridden ? effective.fromDirection : null,
+			windOverridden ? effective.toDirection : null,
+			(effective.randomSpread != base.randomSpread) ? effective.randomSpread : null,
+			(effective.interval != base.interval) ? effective.interval : null,
+			(effective.phase != base.phase) ? effective.phase : null,
+			(effective.gate != base.gate) ? effective.gate : null);
+		return overrides.isEmpty() ? null : overrides;
+	}
+
+	/**
+	 * Create overrides which override all settings.
+	 *
+	 * @param settings The settings to override with.
+	 * @return Overrides which override all settings.
+	 */
+	static SmokerOverrides of(SmokerSettings settings) {
+		return new SmokerOverrides(settings.smokeType, settings.densityMin, settings.densityMax, settings.decayChance, settings.maxDistance, true, settings.fromDirection, settings.toDirection, settings.randomSpread, settings.interval, settings.phase, settings.gate);
+	}
+
+	private boolean isEmpty() {
+		return (smokeType == null) && (densityMin == null) && (densityMax == null) && (decayChance == null) && (maxDistance == null) && (! windOverridden) && (randomSpread == null) && (interval == null) && (phase == null) && (gate == null);
+	}
+
+	private final Material smokeType;
+	private final Integer densityMin, densityMax, maxDistance;
+	private final Float decayChance;
+	private final boolean windOverridden;
+	private final WindDirection fromDirection, toDirection;
+	private final Boolean randomSpread;
+	private final Integer interval, phase;
+	/**
+	 * Absent in data saved before gates existed, which is the same as not
+	 * overriding it.
+	 */
+	private final SmokerGate gate;
+
+	private static final long serialVersionUID = 1L;
+}
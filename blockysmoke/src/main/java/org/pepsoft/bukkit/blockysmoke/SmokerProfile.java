@@ -0,0 +1,46 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+/**
+ * A named, immutable set of smoker settings, as defined in the
+ * <code>profiles</code> section of the config file. A single instance is
+ * shared by all smokers which use the profile; those smokers only keep the
+ * settings they override themselves.
+ *
+ * @author Pepijn Schmitz
+ */
+public final class SmokerProfile {
+	public SmokerProfile(String name, SmokerSettings settings) {
+		this.name = name;
+		this.settings = settings;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	public final String name;
+	public final SmokerSettings settings;
+
+	/**
+	 * The name of the implicit profile consisting of the default settings
+	 * from the top level of the config file.
+	 */
+	public static final String DEFAULT_PROFILE_NAME = "default";
+}
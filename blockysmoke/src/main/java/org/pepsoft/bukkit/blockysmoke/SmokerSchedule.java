@@ -0,0 +1,115 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A hashed timing wheel which determines on which server tick each smoker
+ * of a world is updated. A smoker is due on the ticks <em>t</em> for which
+ * <em>t</em> modulo its interval equals its phase, and is kept in the slot
+ * for its next due tick, so that each tick only the smokers in one slot need
+ * to be looked at. Smokers with an interval longer than the wheel stay in
+ * their slot for several revolutions.
+ *
+ * <p>Smokers are removed lazily: the wheel does not need to be told when a
+ * smoker is removed or deactivated, as long as the action passed to
+ * {@link #advance(long, Predicate)} reports it.
+ *
+ * @author Pepijn Schmitz
+ */
+final class SmokerSchedule {
+	@SuppressWarnings({"unchecked", "rawtypes"}) // Generic array creation
+	SmokerSchedule(int defaultInterval) {
+		this.defaultInterval = defaultInterval;
+		slots = new List[WHEEL_SIZE];
+		for (int i = 0; i < WHEEL_SIZE; i++)
+			slots[i] = new ArrayList<>();
+	}
+
+	/**
+	 * Schedule a smoker for its next due tick after the current one, unless
+	 * it is already scheduled.
+	 *
+	 * @param smokingBlock The smoker to schedule.
+	 * @param now The current tick.
+	 */
+	void schedule(SmokingBlock smokingBlock, long now) {
+		if (! smokingBlock.scheduled) {
+			smokingBlock.scheduled = true;
+			add(smokingBlock, now);
+		}
+	}
+
+	/**
+	 * Perform an action on all smokers which are due on a tick. The smokers
+	 * for which the action returns <code>true</code> are rescheduled for
+	 * their next due tick, taking into account any change in their interval or
+	 * phase; the others are removed from the wheel. Must be invoked for every
+	 * consecutive tick.
+	 *
+	 * @param now The current tick.
+	 * @param action The action to perform.
+	 */
+	void advance(long now, Predicate<SmokingBlock> action) {
+		final List<SmokingBlock> slot = slots[(int) (now & WHEEL_MASK)];
+		if (slot.isEmpty())
+			return;
+		// Take the due smokers out of the slot first, since they may be
+		// rescheduled into the same slot
+		final List<SmokingBlock> dueBlocks = new ArrayList<>();
+		int kept = 0;
+		final int size = slot.size();
+		for (int i = 0; i < size; i++) {
+			final SmokingBlock smokingBlock = slot.get(i);
+			if (smokingBlock.dueTick <= now)
+				dueBlocks.add(smokingBlock);
+			else
+				slot.set(kept++, smokingBlock);
+		}
+		slot.subList(kept, size).clear();
+		for (final SmokingBlock smokingBlock: dueBlocks)
+			if (action.test(smokingBlock))
+				add(smokingBlock, now);
+			else
+				smokingBlock.scheduled = false;
+	}
+
+	private void add(SmokingBlock smokingBlock, long now) {
+		final SmokerSettings settings = smokingBlock.getSettings();
+		final long interval = (settings.interval != SmokerSettings.DEFAULT_INTERVAL) ? settings.interval : defaultInterval;
+		final long phase = (settings.phase != SmokerSettings.AUTO_PHASE) ? settings.phase : autoPhase(smokingBlock.location);
+		final long dueTick = now + 1 + Math.floorMod(phase - (now + 1), interval);
+		smokingBlock.dueTick = dueTick;
+		slots[(int) (dueTick & WHEEL_MASK)].add(smokingBlock);
+	}
+
+	/**
+	 * Derive a phase from a location, scrambling the hash code so that
+	 * neighbouring smokers end up on different ticks.
+	 */
+	private static long autoPhase(IntLocation location) {
+		return (location.hashCode() * 0x9e3779b9) >>> 8;
+	}
+
+	private final int defaultInterval;
+	private final List<SmokingBlock>[] slots;
+
+	private static final int WHEEL_SIZE = 128, WHEEL_MASK = WHEEL_SIZE - 1;
+}
@@ -0,0 +1,116 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import java.io.Serializable;
+
+import org.bukkit.Material;
+
+/**
+ * The immutable settings of a blocky smoker, as used by the
+ * {@link BlockySmokeService}.
+ *
+ * @author Pepijn Schmitz
+ */
+public final class SmokerSettings implements Serializable {
+	/**
+	 * Create smoker settings with the default interval and an automatic
+	 * phase.
+	 */
+	public SmokerSettings(Material smokeType, int densityMin, int densityMax, float decayChance, int maxDistance, WindDirection fromDirection, WindDirection toDirection, boolean randomSpread) {
+		this(smokeType, densityMin, densityMax, decayChance, maxDistance, fromDirection, toDirection, randomSpread, DEFAULT_INTERVAL, AUTO_PHASE);
+	}
+
+	/**
+	 * Create smoker settings without a gate.
+	 *
+	 * @param interval The number of server ticks between updates of the
+	 *     smoker, or {@link #DEFAULT_INTERVAL} for the configured delay.
+	 * @param phase The server tick within the interval on which the smoker
+	 *     is updated, or {@link #AUTO_PHASE} to derive it from the location of
+	 *     the smoker, which spreads smokers evenly over the interval.
+	 */
+	public SmokerSettings(Material smokeType, int densityMin, int densityMax, float decayChance, int maxDistance, WindDirection fromDirection, WindDirection toDirection, boolean randomSpread, int interval, int phase) {
+		this(smokeType, densityMin, densityMax, decayChance, maxDistance, fromDirection, toDirection, randomSpread, interval, phase, SmokerGate.NONE);
+	}
+
+	/**
+	 * Create smoker settings.
+	 *
+	 * @param interval The number of server ticks between updates of the
+	 *     smoker, or {@link #DEFAULT_INTERVAL} for the configured delay.
+	 * @param phase The server tick within the interval on which the smoker
+	 *     is updated, or {@link #AUTO_PHASE} to derive it from the location of
+	 *     the smoker, which spreads smokers evenly over the interval.
+	 * @param gate What determines whether the smoker emits smoke.
+	 */
+	public SmokerSettings(Material smokeType, int densityMin, int densityMax, float decayChance, int maxDistance, WindDirection fromDirection, WindDirection toDirection, boolean randomSpread, int interval, int phase, SmokerGate gate) {
+		if (smokeType == null)
+			throw new IllegalArgumentException("smokeType == null");
+		else if (densityMin < 0)
+			throw new IllegalArgumentException("densityMin < 0");
+		else if (densityMax < 1)
+			throw new IllegalArgumentException("densityMax < 1");
+		else if (densityMin > densityMax)
+			throw new IllegalArgumentException("densityMin > densityMax");
+		else if ((decayChance < 0.0f) || (decayChance > 1.0f))
+			throw new IllegalArgumentException("decayChance not between 0 and 1");
+		else if (maxDistance < 0)
+			throw new IllegalArgumentException("maxDistance < 0");
+		else if ((fromDirection != null) ? (toDirection == null) : (toDirection != null))
+			throw new IllegalArgumentException("fromDirection and toDirection must both be specified, or neither");
+		else if (interval < 0)
+			throw new IllegalArgumentException("interval < 0");
+		else if (phase < AUTO_PHASE)
+			throw new IllegalArgumentException("phase < 0 and not AUTO_PHASE");
+		else if (gate == null)
+			throw new IllegalArgumentException("gate == null");
+		this.smokeType = smokeType;
+		this.densityMin = densityMin;
+		this.densityMax = densityMax;
+		this.decayChance = decayChance;
+		this.maxDistance = maxDistance;
+		this.fromDirection = fromDirection;
+		this.toDirection = toDirection;
+		this.randomSpread = randomSpread;
+		this.interval = interval;
+		this.phase = phase;
+		this.gate = gate;
+	}
+
+	public final Material smokeType;
+	public final int densityMin, densityMax, maxDistance;
+	public final float decayChance;
+	public final WindDirection fromDirection, toDirection;
+	public final boolean randomSpread;
+	public final int interval, phase;
+	public final SmokerGate gate;
+
+	/**
+	 * The interval indicating that the smoker should be updated every
+	 * <code>delay</code> server ticks, as configured in the config file.
+	 */
+	public static final int DEFAULT_INTERVAL = 0;
+
+	/**
+	 * The phase indicating that it should be derived from the location of the
+	 * smoker.
+	 */
+	public static final int AUTO_PHASE = -1;
+
+	private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,77 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+/**
+ * The immutable state of a single blocky smoker at the time a
+ * {@link SmokeSnapshot} was taken.
+ *
+ * @author Pepijn Schmitz
+ */
+public final class SmokerSnapshot {
+	SmokerSnapshot(IntLocation location, String profileName, boolean active, boolean dormant, int particleCount, IntLocation plumeMin, IntLocation plumeMax) {
+		this.location = location;
+		this.profileName = profileName;
+		this.active = active;
+		this.dormant = dormant;
+		this.particleCount = particleCount;
+		this.plumeMin = plumeMin;
+		this.plumeMax = plumeMax;
+	}
+
+	/**
+	 * Determine whether the smoker has any smoke.
+	 *
+	 * @return <code>true</code> if the smoker has smoke, in which case
+	 *     {@link #plumeMin} and {@link #plumeMax} are set.
+	 */
+	public boolean hasPlume() {
+		return plumeMin != null;
+	}
+
+	@Override
+	public String toString() {
+		return "SmokerSnapshot{location=" + location + ", profile=" + profileName + ", active=" + active + ", dormant=" + dormant + ", particles=" + particleCount + (hasPlume() ? (", plume=" + plumeMin + " - " + plumeMax) : "") + "}";
+	}
+
+	/**
+	 * The location of the source block.
+	 */
+	public final IntLocation location;
+	/**
+	 * The name of the profile of the smoker.
+	 */
+	public final String profileName;
+	/**
+	 * Whether the chunk containing the smoker is loaded, so that it is being
+	 * updated.
+	 */
+	public final boolean active;
+	/**
+	 * Whether the smoker is gated and waiting for its gate to open.
+	 */
+	public final boolean dormant;
+	/**
+	 * The number of smoke particles of the smoker.
+	 */
+	public final int particleCount;
+	/**
+	 * The corners of the bounding box of the smoke of the smoker (both
+	 * inclusive), or <code>null</code> if the smoker has no smoke.
+	 */
+	public final IntLocation plumeMin, plumeMax;
+}
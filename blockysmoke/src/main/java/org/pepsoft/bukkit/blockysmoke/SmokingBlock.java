@@ -16,123 +16,913 @@
  */
 package org.pepsoft.bukkit.blockysmoke;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import org.bukkit.Material;
 import org.bukkit.World;
-import org.bukkit.block.Block;
+import org.pepsoft.util.MathUtils;
 
 /**
- * A single blocky smoker or smoking block. Keeps the settings and a list of
- * smoke blocks, and some logic.
+ * A single blocky smoker or smoking block. Keeps a reference to its profile,
+ * the settings in which it deviates from that profile, a list of smoke
+ * blocks, and some logic.
+ *
+ * <p>A smoking block may be an emitter, which spawns smoke from a number of
+ * cells (for instance an area or a line) rather than from its own location.
+ * An emitter shares one set of smoke blocks, one occupancy map and one
+ * schedule entry between all its cells, and only its own location is
+ * checked as the source block.
+ *
+ * <p>Smoking blocks are serialized through a {@link SerializedForm}, which
+ * records the name of the profile rather than the settings. After
+ * deserializing the profile must be resolved with
+ * {@link #setProfile(SmokerProfile, World)}.
  *
  * @author Pepijn Schmitz
  */
 public final class SmokingBlock implements Serializable {
 
 	public final IntLocation location;
-	public final Material blockType, smokeType;
-	public final int densityMin, densityMax, maxDistance;
-	public final float decayChance;
-	public final WindDirection fromDirection, toDirection;
-	public final boolean randomSpread;
+	public final Material blockType;
 
-	private final Set<SmokeBlock> smokeBlocks = new HashSet<>();
-	private final Map<IntLocation, Integer> occupancyCounts = new HashMap<>();
-	private final Random random = new Random();
+	private String profileName;
+	private SmokerOverrides overrides;
+	/**
+	 * The cells from which smoke is spawned if this is an emitter, or
+	 * <code>null</code> if smoke is spawned from the location.
+	 */
+	private final IntLocation[] emitterCells;
+	/**
+	 * The effective settings. The same instance as the settings of the
+	 * profile if there are no overrides.
+	 */
+	private SmokerSettings settings;
+	/**
+	 * The state of the smoke. Only allocated while the smoking block is
+	 * active, and all <code>null</code> while it is packed, so that the
+	 * smoking blocks in chunks which are not loaded take as little memory as
+	 * possible. See {@link #unpack()} and {@link #pack(SmokeWorld)}.
+	 */
+	private Set<SmokeBlock> smokeBlocks;
+	private Map<IntLocation, Integer> occupancyCounts;
+	private Random random;
+	/**
+	 * The cells whose occupancy count went from zero to non-zero or vice
+	 * versa since the last reconciliation with the world. Only these cells
+	 * need to be read or written. The value indicates whether this smoking
+	 * block had claimed the cell in the {@link SmokeWorld} when it became
+	 * dirty.
+	 */
+	private Map<IntLocation, Boolean> dirtyCells;
+	/**
+	 * The occupied cells in which no smoke could be placed because they
+	 * contain something else, such as the source block, and which have
+	 * therefore not been claimed.
+	 */
+	private Set<IntLocation> blockedCells;
+	/**
+	 * Only set on instances deserialized from the format used before
+	 * profiles existed; see {@link #readResolve()}.
+	 */
+	private transient SmokingBlock legacyReplacement;
+	/**
+	 * The tick on which this smoking block is next due, and whether it is on
+	 * the wheel at all. Maintained by {@link SmokerSchedule}.
+	 */
+	transient long dueTick;
+	transient boolean scheduled;
+	/**
+	 * Whether a gated smoking block is currently allowed to emit smoke.
+	 * Closed until the gate has been checked.
+	 */
+	private transient boolean gateOpen;
+	/**
+	 * The bounding box of the smoke as of the last update, and the snapshot
+	 * of this smoking block last published, which is stale if it has been
+	 * updated since.
+	 */
+	private transient int plumeMinX, plumeMinY, plumeMinZ, plumeMaxX, plumeMaxY, plumeMaxZ;
+	private transient SmokerSnapshot snapshot;
+	private transient boolean snapshotStale, plumeBoundsValid;
+	/**
+	 * Whether this smoking block is included in the running totals of its
+	 * world, and the sizes with which it is included; see
+	 * {@link SmokeWorld#smokerAdded(SmokingBlock)}.
+	 */
+	transient boolean counted, countedUnpacked;
+	transient int countedParticles, countedOccupancy, countedDirty;
 
 	private static final long serialVersionUID = 1L;
 
-	public SmokingBlock(IntLocation location, Material blockType, Material smokeType, int densityMin, int densityMax, float decayChance, int maxDistance, WindDirection fromDirection, WindDirection toDirection, boolean randomSpread) {
+	/**
+	 * Create a new smoking block.
+	 *
+	 * @param location The location of the source block.
+	 * @param blockType The type of the source block.
+	 * @param profile The profile of the smoking block.
+	 * @param settings The effective settings of the smoking block. Only the
+	 *     settings which differ from the profile are stored.
+	 */
+	public SmokingBlock(IntLocation location, Material blockType, SmokerProfile profile, SmokerSettings settings) {
+		this(location, blockType, profile, settings, null);
+	}
+
+	/**
+	 * Create a new smoking block, which may be an emitter.
+	 *
+	 * @param location The location of the source block.
+	 * @param blockType The type of the source block.
+	 * @param profile The profile of the smoking block.
+	 * @param settings The effective settings of the smoking block. Only the
+	 *     settings which differ from the profile are stored.
+	 * @param emitterCells The cells from which to spawn smoke, or
+	 *     <code>null</code> to spawn smoke from the location.
+	 */
+	public SmokingBlock(IntLocation location, Material blockType, SmokerProfile profile, SmokerSettings settings, Collection<IntLocation> emitterCells) {
+		this(location, blockType, profile.name, SmokerOverrides.diff(profile.settings, settings), (emitterCells != null) ? emitterCells.toArray(new IntLocation[emitterCells.size()]) : null);
+		setProfile(profile, null);
+	}
+
+	/**
+	 * Create a new smoking block of which the profile has not been resolved
+	 * yet.
+	 */
+	SmokingBlock(IntLocation location, Material blockType, String profileName, SmokerOverrides overrides, IntLocation[] emitterCells) {
+		if ((emitterCells != null) && (emitterCells.length == 0))
+			throw new IllegalArgumentException("emitterCells is empty");
 		this.location = location;
 		this.blockType = blockType;
-		this.smokeType = smokeType;
-		this.densityMin = densityMin;
-		this.densityMax = densityMax;
-		this.decayChance = decayChance;
-		this.maxDistance = maxDistance;
-		this.fromDirection = fromDirection;
-		this.toDirection = toDirection;
-		this.randomSpread = randomSpread;
-	}
-
-	/**
-	 * Propagate smoke from this smoking block.
-	 *
-	 * @return <code>true</code> if the smoking block should continue to exist.
-	 */
-	public boolean tick(World world) {
-		// Check whether the smoking block still exists
-		final Block smokingBlock = world.getBlockAt(location.x, location.y, location.z);
-		if (smokingBlock.getType() == blockType) {
-			// Spawn new smoke blocks in the location of the smoker. The
-			// propagate step below will move them in the clear
-			final int blocksToSpawn = random.nextInt(densityMax - densityMin + 1) + densityMin;
-			for (int i = 0; i < blocksToSpawn; i++)
-				smokeBlocks.add(new SmokeBlock(this, location));
-			final int newCount = occupancyCounts.containsKey(location) ? occupancyCounts.get(location) + blocksToSpawn : blocksToSpawn;
-			occupancyCounts.put(location, newCount);
-
-			// Propagate the smoke blocks
-			for (final Iterator<SmokeBlock> i = smokeBlocks.iterator(); i.hasNext(); ) {
-				final SmokeBlock smokeBlock = i.next();
-				if (! smokeBlock.tick(world, random))
-					i.remove();
+		this.profileName = profileName;
+		this.overrides = overrides;
+		this.emitterCells = emitterCells;
+	}
+
+	/**
+	 * Get the effective settings of this smoking block.
+	 *
+	 * @return The effective settings of this smoking block.
+	 */
+	public SmokerSettings getSettings() {
+		return settings;
+	}
+
+	/**
+	 * Get the name of the profile of this smoking block.
+	 *
+	 * @return The name of the profile of this smoking block.
+	 */
+	public String getProfileName() {
+		return profileName;
+	}
+
+	/**
+	 * Indicates whether this smoking block deviates from its profile.
+	 *
+	 * @return <code>true</code> if this smoking block has settings of its
+	 * own.
+	 */
+	public boolean hasOverrides() {
+		return overrides != null;
+	}
+
+	/**
+	 * Indicates whether this smoking block is an emitter, which spawns smoke
+	 * from a number of cells.
+	 *
+	 * @return <code>true</code> if this smoking block is an emitter.
+	 */
+	public boolean isEmitter() {
+		return emitterCells != null;
+	}
+
+	/**
+	 * Get the cells from which this smoking block spawns smoke.
+	 *
+	 * @return The cells from which this smoking block spawns smoke; only its
+	 * location if it is not an emitter.
+	 */
+	public List<IntLocation> getEmitterCells() {
+		return (emitterCells != null) ? Collections.unmodifiableList(Arrays.asList(emitterCells)) : Collections.singletonList(location);
+	}
+
+	/**
+	 * Seed the random number generator of this smoking block, to make its
+	 * behaviour reproducible.
+	 */
+	void setSeed(long seed) {
+		unpack();
+		random.setSeed(seed);
+	}
+
+	/**
+	 * Visit the locations of the smoke blocks, or particles, of this smoking
+	 * block.
+	 */
+	void visitParticles(Consumer<IntLocation> visitor) {
+		if (smokeBlocks != null)
+			for (final SmokeBlock smokeBlock: smokeBlocks)
+				visitor.accept(smokeBlock.getLocation());
+	}
+
+	/**
+	 * Get the number of smoke blocks, or particles, of this smoking block.
+	 */
+	int getParticleCount() {
+		return (smokeBlocks != null) ? smokeBlocks.size() : 0;
+	}
+
+	/**
+	 * Get the number of cells for which this smoking block keeps an occupancy
+	 * count.
+	 */
+	int getOccupancyCount() {
+		return (occupancyCounts != null) ? occupancyCounts.size() : 0;
+	}
+
+	/**
+	 * Indicates whether the state of the smoke of this smoking block is
+	 * currently released; see {@link #pack(SmokeWorld)}.
+	 */
+	boolean isPacked() {
+		return smokeBlocks == null;
+	}
+
+	/**
+	 * Release the state of the smoke of this smoking block if it has no smoke
+	 * left, because it has nothing to do for the time being: it is gated and
+	 * dormant, or its smoke has been handed to the {@link SmokeTeardown}. It
+	 * is allocated again when it is next needed.
+	 *
+	 * @param smokeWorld The world in which the smoking block is located.
+	 */
+	void pack(SmokeWorld smokeWorld) {
+		if ((smokeBlocks != null) && smokeBlocks.isEmpty() && occupancyCounts.isEmpty() && dirtyCells.isEmpty()) {
+			smokeBlocks = null;
+			occupancyCounts = null;
+			dirtyCells = null;
+			blockedCells = null;
+			random = null;
+		}
+		recount(smokeWorld);
+	}
+
+	/**
+	 * Bring the running totals of the world up to date with the current
+	 * sizes of the state of this smoking block, if it is included in them.
+	 * Invoked at the end of every operation which changes those sizes.
+	 */
+	private void recount(SmokeWorld smokeWorld) {
+		if (counted && (smokeWorld != null))
+			smokeWorld.smokerChanged(this);
+	}
+
+	/**
+	 * Allocate the state of the smoke of this smoking block, if it is packed.
+	 */
+	private void unpack() {
+		if (smokeBlocks == null) {
+			smokeBlocks = new HashSet<>();
+			occupancyCounts = new HashMap<>();
+			dirtyCells = new HashMap<>();
+			blockedCells = new HashSet<>();
+			random = new Random();
+		}
+	}
+
+	boolean isGated() {
+		return settings.gate != SmokerGate.NONE;
+	}
+
+	/**
+	 * Open or close the gate of a gated smoking block. While the gate is
+	 * closed the smoking block does not emit smoke, but its existing smoke
+	 * keeps moving until it has dissipated.
+	 */
+	void setGateOpen(boolean gateOpen) {
+		this.gateOpen = gateOpen;
+		snapshotStale = true;
+	}
+
+	/**
+	 * Determine whether this smoking block has nothing to do until its gate
+	 * opens: it is gated, the gate is closed and all its smoke has
+	 * dissipated and been removed from the world.
+	 */
+	boolean isDormant() {
+		return (settings.gate != SmokerGate.NONE) && (! gateOpen) && ((smokeBlocks == null) || (smokeBlocks.isEmpty() && dirtyCells.isEmpty()));
+	}
+
+	/**
+	 * Get a snapshot of the state of this smoking block, reusing the previous
+	 * one if nothing has changed. Must be invoked on the main thread.
+	 *
+	 * @param active Whether the smoking block is currently active.
+	 * @return A snapshot of the state of this smoking block.
+	 */
+	SmokerSnapshot getSnapshot(boolean active) {
+		if ((snapshot == null) || snapshotStale || (snapshot.active != active)) {
+			final int particleCount = getParticleCount();
+			final boolean hasPlume = (particleCount > 0) && (plumeMinX <= plumeMaxX);
+			snapshot = new SmokerSnapshot(location, profileName, active, isDormant(), particleCount,
+				hasPlume ? new IntLocation(plumeMinX, plumeMinY, plumeMinZ) : null,
+				hasPlume ? new IntLocation(plumeMaxX, plumeMaxY, plumeMaxZ) : null);
+			snapshotStale = false;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Get the cells in which there may be smoke of this smoking block.
+	 */
+	Set<IntLocation> getSmokeCells() {
+		return (occupancyCounts != null) ? Collections.unmodifiableSet(occupancyCounts.keySet()) : Collections.<IntLocation>emptySet();
+	}
+
+	/**
+	 * Get the number of cells which still need to be reconciled with the
+	 * world.
+	 */
+	int getDirtyCellCount() {
+		return (dirtyCells != null) ? dirtyCells.size() : 0;
+	}
+
+	/**
+	 * (Re)resolve the profile of this smoking block. The settings which this
+	 * smoking block does not override are taken from the profile.
+	 *
+	 * @param profile The profile.
+	 * @param smokeWorld The world in which the smoking block is located, if
+	 *     the smoke should be removed when the smoke type changes, or
+	 *     <code>null</code> if not.
+	 */
+	void setProfile(SmokerProfile profile, SmokeWorld smokeWorld) {
+		final SmokerSettings newSettings = (overrides != null) ? overrides.apply(profile.settings) : profile.settings;
+		if ((smokeWorld != null) && (settings != null) && (newSettings.smokeType != settings.smokeType))
+			removeAllSmoke(smokeWorld);
+		profileName = profile.name;
+		settings = newSettings;
+		snapshotChanged(smokeWorld);
+	}
+
+	/**
+	 * Change the settings of this smoking block in place, keeping its smoke as
+	 * far as the new settings allow. If the smoke type changes all smoke is
+	 * removed; otherwise only the particles which are now too far from their
+	 * origin are removed. The cells which they leave empty are cleared on the
+	 * next tick.
+	 *
+	 * @param profile The profile of the smoking block.
+	 * @param newSettings The new effective settings of the smoking block.
+	 * @param smokeWorld The world in which the smoking block is located.
+	 * @return The number of particles removed.
+	 */
+	int reconfigure(SmokerProfile profile, SmokerSettings newSettings, SmokeWorld smokeWorld) {
+		final int particleCount = getParticleCount();
+		overrides = SmokerOverrides.diff(profile.settings, newSettings);
+		setProfile(profile, smokeWorld);
+		if ((smokeBlocks == null) || smokeBlocks.isEmpty())
+			return particleCount;
+		for (final Iterator<SmokeBlock> i = smokeBlocks.iterator(); i.hasNext(); ) {
+			final SmokeBlock smokeBlock = i.next();
+			final IntLocation smokeLocation = smokeBlock.getLocation();
+			if (MathUtils.getDistance(smokeBlock.getOrigin(), smokeLocation) > settings.maxDistance) {
+				remove(smokeLocation);
+				i.remove();
 			}
+		}
+		recount(smokeWorld);
+		return particleCount - smokeBlocks.size();
+	}
+
+	/**
+	 * Propagate smoke from this smoking block. Does not check whether the
+	 * source block still exists; use {@link #isSourcePresent(World)} for
+	 * that.
+	 *
+	 * @param smokeWorld The world in which the smoking block is located.
+	 */
+	public void tick(SmokeWorld smokeWorld) {
+		final BlockAccess blocks = smokeWorld.blocks;
+		unpack();
+		final boolean timePhases = smokeWorld.timePhases;
+		long phaseStart = timePhases ? System.nanoTime() : 0L;
+		// Spawn new smoke blocks in the location of the smoker, or the cells
+		// of the emitter. The propagate step below will move them in the clear
+		if ((settings.gate == SmokerGate.NONE) || gateOpen)
+			spawnAll(smokeWorld);
+		if (timePhases) {
+			final long now = System.nanoTime();
+			smokeWorld.spawnTime += now - phaseStart;
+			phaseStart = now;
+		}
+
+		propagate(smokeWorld);
+		if (timePhases) {
+			final long now = System.nanoTime();
+			smokeWorld.propagateTime += now - phaseStart;
+			phaseStart = now;
+		}
 
-			// Update the world
-			for (final Iterator<Map.Entry<IntLocation, Integer>> i = occupancyCounts.entrySet().iterator(); i.hasNext(); ) {
-				final Map.Entry<IntLocation, Integer> entry = i.next();
-				final IntLocation smokeCoords = entry.getKey();
-				if (entry.getValue() < 1) {
-					// There should be no smoke; remove it (if there is actually
-					// still smoke there)
-					final Block block = world.getBlockAt(smokeCoords.x, smokeCoords.y, smokeCoords.z);
-					if (block.getType() == smokeType)
-						block.setType(Material.AIR, false);
-					i.remove();
-				} else if (world.getBlockAt(smokeCoords.x, smokeCoords.y, smokeCoords.z).getType() == Material.AIR) {
+		// Update the world, but only for the cells which became empty or
+		// occupied since the last tick. Cells in chunks which are not loaded
+		// are left dirty until they are
+		for (final Iterator<Map.Entry<IntLocation, Boolean>> i = dirtyCells.entrySet().iterator(); i.hasNext(); ) {
+			final Map.Entry<IntLocation, Boolean> entry = i.next();
+			final IntLocation smokeCoords = entry.getKey();
+			if (! smokeWorld.isLoaded(smokeCoords))
+				continue;
+			i.remove();
+			final boolean claimed = entry.getValue();
+			final Integer count = occupancyCounts.get(smokeCoords);
+			if ((count == null) || (count < 1)) {
+				// There should be no smoke; remove it (if there is actually
+				// still smoke there), unless another smoker still has smoke
+				// in the cell
+				occupancyCounts.remove(smokeCoords);
+				blockedCells.remove(smokeCoords);
+				if (claimed ? smokeWorld.smokeReleased(smokeCoords) : (! smokeWorld.isSmoke(smokeCoords.x, smokeCoords.y, smokeCoords.z)))
+					clearCell(smokeWorld, smokeCoords);
+			} else if (! claimed) {
+				// Always look before placing smoke, even in open sky, so that
+				// blocks changed without an event are never overwritten
+				smokeWorld.blockReads++;
+				final Material type = blocks.getType(smokeCoords.x, smokeCoords.y, smokeCoords.z);
+				if (type == Material.AIR) {
 					// There should be smoke, and there is currently air; place
 					// the smoke
-					final Block block = world.getBlockAt(smokeCoords.x, smokeCoords.y, smokeCoords.z);
-					block.setType(smokeType, false);
-				}
+					blocks.setType(smokeCoords.x, smokeCoords.y, smokeCoords.z, settings.smokeType);
+					smokeWorld.blockWrites++;
+					claim(smokeWorld, smokeCoords);
+				} else if (type == settings.smokeType)
+					// The smoke is already there, for instance because it was
+					// left behind, or placed by another smoker; it is ours too
+					claim(smokeWorld, smokeCoords);
+				else
+					blockedCells.add(smokeCoords);
 			}
-			return true;
-		} else {
-			// The original block is gone; remove all the smoke
-			removeAllSmoke(world);
+		}
+		// The last of the smoke of a closed gated smoking block may only be
+		// removed after the particles are gone
+		if ((snapshot != null) && (snapshot.dormant != isDormant()))
+			snapshotChanged(smokeWorld);
+		recount(smokeWorld);
+		if (timePhases) {
+			smokeWorld.reconcileTime += System.nanoTime() - phaseStart;
+			smokeWorld.smokersTicked++;
+			smokeWorld.particlesTicked += smokeBlocks.size();
+		}
+	}
+
+	/**
+	 * Fast-forward the plume of a smoking block which has no smoke to its
+	 * steady state, in memory only. The smoke is spawned and propagated for a
+	 * number of ticks without being reconciled with the world, so that the
+	 * next tick places the whole plume in one batch, instead of growing it
+	 * from a single block while writing to the world on every tick. Since the
+	 * smoke is not in the world meanwhile, it spreads as if into air.
+	 *
+	 * @param smokeWorld The world in which the smoking block is located.
+	 * @param maxTicks The maximum number of ticks to fast-forward.
+	 * @return The number of ticks fast-forwarded.
+	 */
+	int prewarm(SmokeWorld smokeWorld, int maxTicks) {
+		if ((getParticleCount() > 0) || (getDirtyCellCount() > 0) || ((settings.gate != SmokerGate.NONE) && (! gateOpen)))
+			return 0;
+		// After three times the mean lifetime of a particle only a few percent
+		// of the first particles are left, so the plume has settled
+		final int ticks = (settings.decayChance > 0.0f) ? (int) Math.min(maxTicks, Math.ceil(3 / settings.decayChance)) : maxTicks;
+		unpack();
+		for (int i = 0; i < ticks; i++) {
+			spawnAll(smokeWorld);
+			propagate(smokeWorld);
+		}
+		// None of the smoke has been placed yet, so only the occupied cells
+		// need to be reconciled
+		occupancyCounts.values().removeIf(count -> count < 1);
+		dirtyCells.clear();
+		for (final IntLocation cell: occupancyCounts.keySet())
+			dirtyCells.put(cell, false);
+		recount(smokeWorld);
+		return ticks;
+	}
+
+	/**
+	 * Claim a cell which holds the smoke of this smoking block.
+	 */
+	private void claim(SmokeWorld smokeWorld, IntLocation cell) {
+		// The cell is ours now, so a pending teardown should leave the smoke
+		// alone
+		if (! smokeWorld.pendingTeardown.isEmpty())
+			smokeWorld.pendingTeardown.remove(cell);
+		smokeWorld.smokePlaced(cell, settings.smokeType);
+	}
+
+	/**
+	 * Determine whether this smoking block has claimed an occupied or dirty
+	 * cell in the {@link SmokeWorld}.
+	 */
+	private boolean isClaimed(IntLocation cell) {
+		final Boolean claimed = dirtyCells.get(cell);
+		return (claimed != null) ? claimed : (! blockedCells.contains(cell));
+	}
+
+	/**
+	 * Give up a cell, because the smoke of this smoking block is being
+	 * removed from it. The smoke is removed if no other smoker has smoke in
+	 * the cell, or set aside for later if the cell is not loaded.
+	 *
+	 * @return <code>true</code> if the smoke was removed or set aside.
+	 */
+	private boolean releaseCell(SmokeWorld smokeWorld, IntLocation cell) {
+		if (isClaimed(cell)) {
+			if (! smokeWorld.smokeReleased(cell))
+				return false;
+		} else if ((! smokeWorld.isLoaded(cell)) || smokeWorld.isSmoke(cell.x, cell.y, cell.z))
+			// Nothing of ours was placed here, or the smoke is someone else's
 			return false;
+		if (smokeWorld.isLoaded(cell))
+			clearCell(smokeWorld, cell);
+		else
+			smokeWorld.parkOrphan(cell, settings.smokeType);
+		return true;
+	}
+
+	private void spawnAll(SmokeWorld smokeWorld) {
+		if (emitterCells == null)
+			spawn(location);
+		else
+			for (final IntLocation cell: emitterCells)
+				if (smokeWorld.isLoaded(cell))
+					spawn(cell);
+	}
+
+	/**
+	 * Propagate the smoke blocks, keeping track of the bounding box of the
+	 * smoke for the snapshot.
+	 */
+	private void propagate(SmokeWorld smokeWorld) {
+		final int oldMinX = plumeMinX, oldMinY = plumeMinY, oldMinZ = plumeMinZ, oldMaxX = plumeMaxX, oldMaxY = plumeMaxY, oldMaxZ = plumeMaxZ;
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+		for (final Iterator<SmokeBlock> i = smokeBlocks.iterator(); i.hasNext(); ) {
+			final SmokeBlock smokeBlock = i.next();
+			if (smokeBlock.tick(smokeWorld, random)) {
+				final IntLocation smokeLocation = smokeBlock.getLocation();
+				minX = Math.min(minX, smokeLocation.x);
+				minY = Math.min(minY, smokeLocation.y);
+				minZ = Math.min(minZ, smokeLocation.z);
+				maxX = Math.max(maxX, smokeLocation.x);
+				maxY = Math.max(maxY, smokeLocation.y);
+				maxZ = Math.max(maxZ, smokeLocation.z);
+			} else
+				i.remove();
+		}
+		plumeMinX = minX;
+		plumeMinY = minY;
+		plumeMinZ = minZ;
+		plumeMaxX = maxX;
+		plumeMaxY = maxY;
+		plumeMaxZ = maxZ;
+		plumeBoundsValid = true;
+		// The snapshot only records the particle count and the extent of the
+		// plume, so it only needs to be recreated if either changed
+		if ((snapshot == null) || (snapshot.particleCount != smokeBlocks.size()) || (minX != oldMinX) || (minY != oldMinY) || (minZ != oldMinZ) || (maxX != oldMaxX) || (maxY != oldMaxY) || (maxZ != oldMaxZ))
+			snapshotChanged(smokeWorld);
+	}
+
+	/**
+	 * Mark the snapshot of this smoking block, and thereby that of its world,
+	 * as stale.
+	 *
+	 * @param smokeWorld The world in which the smoking block is located, or
+	 *     <code>null</code> if the caller takes care of marking the world.
+	 */
+	private void snapshotChanged(SmokeWorld smokeWorld) {
+		snapshotStale = true;
+		if (smokeWorld != null)
+			smokeWorld.snapshotStale = true;
+	}
+
+	private void spawn(IntLocation cell) {
+		final int blocksToSpawn = random.nextInt(settings.densityMax - settings.densityMin + 1) + settings.densityMin;
+		for (int i = 0; i < blocksToSpawn; i++)
+			smokeBlocks.add(new SmokeBlock(this, cell, cell));
+		final int oldCount = occupancyCounts.containsKey(cell) ? occupancyCounts.get(cell) : 0;
+		occupancyCounts.put(cell, oldCount + blocksToSpawn);
+		if ((oldCount < 1) && (blocksToSpawn > 0))
+			dirtyCells.putIfAbsent(cell, false);
+	}
+
+	/**
+	 * Check whether the source block of this smoking block still exists.
+	 *
+	 * @param world The world in which the smoking block is located.
+	 * @return <code>true</code> if the source block still exists.
+	 */
+	public boolean isSourcePresent(World world) {
+		return world.getBlockAt(location.x, location.y, location.z).getType() == blockType;
+	}
+
+	/**
+	 * Remove all smoke of this smoking block, from the simulation and from
+	 * the world. Smoke in chunks which are not loaded is set aside until they
+	 * are, rather than loading them.
+	 *
+	 * @param smokeWorld The world in which the smoking block is located.
+	 */
+	void removeAllSmoke(SmokeWorld smokeWorld) {
+		snapshotChanged(smokeWorld);
+		if (smokeBlocks == null)
+			return;
+		smokeBlocks.clear();
+		for (final IntLocation smokeLocation: occupancyCounts.keySet())
+			releaseCell(smokeWorld, smokeLocation);
+		occupancyCounts.clear();
+		dirtyCells.clear();
+		blockedCells.clear();
+		recount(smokeWorld);
+	}
+
+	/**
+	 * Remove the smoke of this smoking block from a chunk which is about to
+	 * be unloaded, from the world as well as from the simulation, so that it
+	 * is not saved with the chunk and frozen in mid-air. Smoke which drifts
+	 * into the chunk after it is loaded again is simulated anew.
+	 *
+	 * @param smokeWorld The world in which the smoking block is located.
+	 * @param chunkX The X coordinate of the chunk.
+	 * @param chunkZ The Z coordinate of the chunk.
+	 * @return The number of cells cleared.
+	 */
+	int removeSmoke(SmokeWorld smokeWorld, int chunkX, int chunkZ) {
+		if ((occupancyCounts == null) || occupancyCounts.isEmpty()
+				|| (plumeBoundsValid && (((plumeMaxX >> 4) < chunkX) || ((plumeMinX >> 4) > chunkX) || ((plumeMaxZ >> 4) < chunkZ) || ((plumeMinZ >> 4) > chunkZ))))
+			// None of the smoke can be in the chunk. Smoke outside the bounds
+			// can only be in chunks which are not loaded
+			return 0;
+		final int particleCount = smokeBlocks.size();
+		for (final Iterator<SmokeBlock> i = smokeBlocks.iterator(); i.hasNext(); ) {
+			final IntLocation smokeLocation = i.next().getLocation();
+			if (((smokeLocation.x >> 4) == chunkX) && ((smokeLocation.z >> 4) == chunkZ))
+				i.remove();
+		}
+		int count = 0;
+		for (final Iterator<IntLocation> i = occupancyCounts.keySet().iterator(); i.hasNext(); ) {
+			final IntLocation cell = i.next();
+			if (((cell.x >> 4) == chunkX) && ((cell.z >> 4) == chunkZ)) {
+				if (releaseCell(smokeWorld, cell))
+					count++;
+				dirtyCells.remove(cell);
+				blockedCells.remove(cell);
+				i.remove();
+			}
 		}
+		if (smokeBlocks.size() != particleCount)
+			snapshotChanged(smokeWorld);
+		recount(smokeWorld);
+		return count;
 	}
 
-	void removeAllSmoke(World world) {
+	/**
+	 * Remove all smoke of this smoking block, from the simulation and from
+	 * the world as far as it is in loaded chunks, because it is about to be
+	 * deactivated. Smoke in chunks which are not loaded was already removed
+	 * when they were unloaded. When the smoking block is activated again its
+	 * plume is simulated anew. Leaves the smoking block packed.
+	 *
+	 * @param smokeWorld The world in which the smoking block is located.
+	 * @return The number of cells cleared.
+	 */
+	int removeLoadedSmoke(SmokeWorld smokeWorld) {
+		snapshotChanged(smokeWorld);
+		if (smokeBlocks == null)
+			return 0;
+		int count = 0;
+		for (final IntLocation cell: occupancyCounts.keySet())
+			if (smokeWorld.isLoaded(cell) && releaseCell(smokeWorld, cell))
+				count++;
 		smokeBlocks.clear();
-		for (final IntLocation smokeLocation: occupancyCounts.keySet()) {
-			// Remove the smoke, but double check that it is still there
-			// (perhaps somebody removed the smoke and placed a block)
-			final Block block = world.getBlockAt(smokeLocation.x, smokeLocation.y, smokeLocation.z);
-			if (block.getType() == smokeType)
-				block.setType(Material.AIR, false);
+		occupancyCounts.clear();
+		dirtyCells.clear();
+		blockedCells.clear();
+		pack(smokeWorld);
+		return count;
+	}
+
+	/**
+	 * Remove the smoke from a cell in a loaded chunk, if it is still there.
+	 * The cell must no longer be claimed by any smoker.
+	 */
+	private void clearCell(SmokeWorld smokeWorld, IntLocation cell) {
+		final BlockAccess blocks = smokeWorld.blocks;
+		smokeWorld.blockReads++;
+		if (blocks.getType(cell.x, cell.y, cell.z) == settings.smokeType) {
+			blocks.setType(cell.x, cell.y, cell.z, Material.AIR);
+			smokeWorld.blockWrites++;
 		}
+		smokeWorld.smokeCleared(cell);
+	}
+
+	/**
+	 * Forget all smoke of this smoking block without touching the world, so
+	 * that it can be removed from the world in the background by the
+	 * {@link SmokeTeardown}. Cells in which other smokers still have smoke
+	 * are left alone.
+	 *
+	 * @param smokeWorld The world in which the smoking block is located.
+	 * @return The cells in which there may be smoke of this smoking block.
+	 */
+	Set<IntLocation> detachSmoke(SmokeWorld smokeWorld) {
+		snapshotChanged(smokeWorld);
+		if (smokeBlocks == null)
+			return new HashSet<>();
+		final Set<IntLocation> cells = new HashSet<>();
+		for (final IntLocation cell: occupancyCounts.keySet())
+			if (isClaimed(cell) ? smokeWorld.smokeReleased(cell) : (! smokeWorld.isSmoke(cell.x, cell.y, cell.z)))
+				cells.add(cell);
+		smokeBlocks.clear();
 		occupancyCounts.clear();
+		dirtyCells.clear();
+		blockedCells.clear();
+		recount(smokeWorld);
+		return cells;
 	}
 
 	void update(IntLocation oldLocation, IntLocation newLocation) {
 		if (! oldLocation.equals(newLocation)) {
-			occupancyCounts.put(oldLocation, occupancyCounts.get(oldLocation) - 1);
-			occupancyCounts.put(newLocation, occupancyCounts.containsKey(newLocation) ? occupancyCounts.get(newLocation) + 1 : 1);
+			remove(oldLocation);
+			final int oldCount = occupancyCounts.containsKey(newLocation) ? occupancyCounts.get(newLocation) : 0;
+			occupancyCounts.put(newLocation, oldCount + 1);
+			if (oldCount < 1)
+				dirtyCells.putIfAbsent(newLocation, false);
 		}
 	}
 
 	void remove(IntLocation location) {
-		occupancyCounts.put(location, occupancyCounts.get(location) - 1);
+		final int newCount = occupancyCounts.get(location) - 1;
+		occupancyCounts.put(location, newCount);
+		if (newCount < 1)
+			dirtyCells.putIfAbsent(location, ! blockedCells.contains(location));
+	}
+
+	private void addSmokeBlock(IntLocation smokeLocation, IntLocation origin) {
+		unpack();
+		smokeBlocks.add(new SmokeBlock(this, smokeLocation, origin));
+		occupancyCounts.put(smokeLocation, occupancyCounts.containsKey(smokeLocation) ? occupancyCounts.get(smokeLocation) + 1 : 1);
+		// The smoke may not be in the world (anymore); reconcile the cell on
+		// the next tick
+		dirtyCells.putIfAbsent(smokeLocation, false);
+	}
+
+	private Object writeReplace() {
+		return new SerializedForm(this);
+	}
+
+	/**
+	 * Only invoked for data saved before profiles existed, in which each
+	 * smoking block contained all its settings. Such smoking blocks are
+	 * converted to the default profile, overriding all settings. Their smoke
+	 * blocks are discarded, and their smoke is removed from the world on the
+	 * first tick.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		final ObjectInputStream.GetField fields = in.readFields();
+		final SmokerSettings legacySettings = new SmokerSettings((Material) fields.get("smokeType", null),
+			fields.get("densityMin", 1),
+			fields.get("densityMax", 1),
+			fields.get("decayChance", 0.1f),
+			fields.get("maxDistance", 1),
+			(WindDirection) fields.get("fromDirection", null),
+			(WindDirection) fields.get("toDirection", null),
+			fields.get("randomSpread", false));
+		legacyReplacement = new SmokingBlock((IntLocation) fields.get("location", null), (Material) fields.get("blockType", null), SmokerProfile.DEFAULT_PROFILE_NAME, SmokerOverrides.of(legacySettings), null);
+		@SuppressWarnings("unchecked") // Guaranteed by the legacy format
+		final Map<IntLocation, Integer> legacyOccupancyCounts = (Map<IntLocation, Integer>) fields.get("occupancyCounts", null);
+		if (legacyOccupancyCounts != null) {
+			legacyReplacement.unpack();
+			for (final IntLocation cell: legacyOccupancyCounts.keySet()) {
+				legacyReplacement.occupancyCounts.put(cell, 0);
+				legacyReplacement.dirtyCells.put(cell, false);
+			}
+		}
+	}
+
+	private Object readResolve() {
+		return (legacyReplacement != null) ? legacyReplacement : this;
+	}
+
+	/**
+	 * The serialized form of a smoking block. Records the name of the profile
+	 * and the overrides rather than the effective settings, and the smoke
+	 * blocks as packed coordinates, with for emitters the index of the cell
+	 * from which each smoke block originates.
+	 */
+	private static final class SerializedForm implements Serializable {
+		SerializedForm(SmokingBlock smokingBlock) {
+			location = smokingBlock.location;
+			blockType = smokingBlock.blockType;
+			profileName = smokingBlock.profileName;
+			overrides = smokingBlock.overrides;
+			if (smokingBlock.emitterCells != null) {
+				emitterCells = new int[smokingBlock.emitterCells.length * 3];
+				int i = 0;
+				for (final IntLocation cell: smokingBlock.emitterCells) {
+					emitterCells[i++] = cell.x;
+					emitterCells[i++] = cell.y;
+					emitterCells[i++] = cell.z;
+				}
+			} else
+				emitterCells = null;
+			smokeBlocks = new int[smokingBlock.getParticleCount() * 3];
+			smokeOrigins = (smokingBlock.emitterCells != null) ? new short[smokingBlock.getParticleCount()] : null;
+			if (smokingBlock.smokeBlocks != null) {
+				final Map<IntLocation, Integer> cellIndexes = new HashMap<>();
+				if (smokingBlock.emitterCells != null)
+					for (int i = 0; i < smokingBlock.emitterCells.length; i++)
+						cellIndexes.put(smokingBlock.emitterCells[i], i);
+				int i = 0, j = 0;
+				for (final SmokeBlock smokeBlock: smokingBlock.smokeBlocks) {
+					final IntLocation smokeLocation = smokeBlock.getLocation();
+					smokeBlocks[i++] = smokeLocation.x;
+					smokeBlocks[i++] = smokeLocation.y;
+					smokeBlocks[i++] = smokeLocation.z;
+					if (smokeOrigins != null) {
+						final Integer cellIndex = cellIndexes.get(smokeBlock.getOrigin());
+						smokeOrigins[j++] = (cellIndex != null) ? cellIndex.shortValue() : -1;
+					}
+				}
+			}
+		}
+
+		private Object readResolve() {
+			IntLocation[] cells = null;
+			if (emitterCells != null) {
+				cells = new IntLocation[emitterCells.length / 3];
+				for (int i = 0; i < cells.length; i++)
+					cells[i] = new IntLocation(emitterCells[i * 3], emitterCells[i * 3 + 1], emitterCells[i * 3 + 2]);
+			}
+			final SmokingBlock smokingBlock = new SmokingBlock(location, blockType, profileName, overrides, cells);
+			for (int i = 0; i < smokeBlocks.length; i += 3) {
+				final IntLocation smokeLocation = new IntLocation(smokeBlocks[i], smokeBlocks[i + 1], smokeBlocks[i + 2]);
+				final IntLocation origin;
+				if (cells == null)
+					origin = location;
+				else if (smokeOrigins != null)
+					origin = (smokeOrigins[i / 3] >= 0) ? cells[smokeOrigins[i / 3]] : location;
+				else
+					// Saved before the origins were recorded; the nearest
+					// cell of the emitter is the best guess
+					origin = nearestCell(cells, smokeLocation);
+				smokingBlock.addSmokeBlock(smokeLocation, origin);
+			}
+			return smokingBlock;
+		}
+
+		private static IntLocation nearestCell(IntLocation[] cells, IntLocation smokeLocation) {
+			IntLocation nearestCell = cells[0];
+			float nearestDistance = MathUtils.getDistance(nearestCell, smokeLocation);
+			for (int i = 1; i < cells.length; i++) {
+				final float distance = MathUtils.getDistance(cells[i], smokeLocation);
+				if (distance < nearestDistance) {
+					nearestCell = cells[i];
+					nearestDistance = distance;
+				}
+			}
+			return nearestCell;
+		}
+
+		private final IntLocation location;
+		private final Material blockType;
+		private final String profileName;
+		private final SmokerOverrides overrides;
+		/**
+		 * The cells of an emitter as packed coordinates, or <code>null</code>
+		 * if the smoking block is not an emitter. Absent in data saved before
+		 * emitters existed.
+		 */
+		private final int[] emitterCells;
+		private final int[] smokeBlocks;
+		/**
+		 * For emitters, per smoke block the index of the cell of the emitter
+		 * from which it originates, or -1 if it originates from the location.
+		 * <code>null</code> if the smoking block is not an emitter. Absent in
+		 * data saved before the origins were recorded.
+		 */
+		private final short[] smokeOrigins;
+
+		private static final long serialVersionUID = 1L;
 	}
 
 
@@ -0,0 +1,92 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import org.bukkit.Material;
+
+/**
+ * The engine used by the plugin: {@link SmokingBlock}s with their
+ * {@link SmokeBlock}s.
+ *
+ * @author Pepijn Schmitz
+ */
+final class SmokingBlockEngine implements SmokeEngine {
+	/**
+	 * Create an engine which updates every smoker on every tick, regardless
+	 * of its interval.
+	 */
+	SmokingBlockEngine() {
+		schedule = null;
+	}
+
+	/**
+	 * Create an engine which updates the smokers according to their interval
+	 * and phase, as the plugin does.
+	 *
+	 * @param defaultInterval The interval of smokers which have the default
+	 *     interval.
+	 */
+	SmokingBlockEngine(int defaultInterval) {
+		schedule = new SmokerSchedule(defaultInterval);
+	}
+
+	@Override
+	public void addSmoker(IntLocation location, SmokerSettings settings, long seed) {
+		final SmokingBlock smokingBlock = new SmokingBlock(location, Material.STONE, new SmokerProfile(SmokerProfile.DEFAULT_PROFILE_NAME, settings), settings);
+		smokingBlock.setSeed(seed);
+		smokingBlocks.add(smokingBlock);
+		if (schedule != null)
+			schedule.schedule(smokingBlock, tick);
+	}
+
+	@Override
+	public void tick(SmokeWorld smokeWorld) {
+		if (schedule != null)
+			schedule.advance(++tick, smokingBlock -> {
+				smokingBlock.tick(smokeWorld);
+				return true;
+			});
+		else
+			for (final SmokingBlock smokingBlock: smokingBlocks)
+				smokingBlock.tick(smokeWorld);
+	}
+
+	@Override
+	public void visitParticles(BiConsumer<IntLocation, IntLocation> visitor) {
+		for (final SmokingBlock smokingBlock: smokingBlocks)
+			smokingBlock.visitParticles(location -> visitor.accept(smokingBlock.location, location));
+	}
+
+	@Override
+	public void removeSmoke(SmokeWorld smokeWorld) {
+		for (final SmokingBlock smokingBlock: smokingBlocks)
+			smokingBlock.removeAllSmoke(smokeWorld);
+	}
+
+	@Override
+	public String toString() {
+		return "default";
+	}
+
+	private final List<SmokingBlock> smokingBlocks = new ArrayList<>();
+	private final SmokerSchedule schedule;
+	private long tick;
+}
@@ -0,0 +1,97 @@
+/*
+ This file is part of BlockySmokePlugin
+
+ BlockySmokePlugin is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ BlockySmokePlugin is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.pepsoft.bukkit.blockysmoke;
+
+import java.util.Random;
+
+/**
+ * The wind in a single world. Keeps the current wind direction and strength,
+ * and varies them randomly within configured bounds. Each world has its own
+ * instance, with its own random number generator, so that the smoke in a
+ * world does not depend on any other world.
+ *
+ * @author Pepijn Schmitz
+ */
+public final class WindModel {
+	/**
+	 * Create a new wind model.
+	 *
+	 * @param minStrength The minimum wind strength.
+	 * @param maxStrength The maximum wind strength.
+	 * @param fromDirection The start of the range of directions the wind may
+	 *     blow from, or <code>null</code> if it may blow from any direction.
+	 * @param toDirection The end of the range of directions the wind may blow
+	 *     from, or <code>null</code> if it may blow from any direction.
+	 * @param random The random number generator to use.
+	 */
+	public WindModel(int minStrength, int maxStrength, WindDirection fromDirection, WindDirection toDirection, Random random) {
+		if (minStrength < 0)
+			throw new IllegalArgumentException("minStrength < 0");
+		else if (minStrength > maxStrength)
+			throw new IllegalArgumentException("minStrength > maxStrength");
+		else if ((fromDirection != null) ? (toDirection == null) : (toDirection != null))
+			throw new IllegalArgumentException("fromDirection and toDirection must both be specified, or neither");
+		this.minStrength = minStrength;
+		this.maxStrength = maxStrength;
+		this.fromDirection = fromDirection;
+		this.toDirection = toDirection;
+		this.random = random;
+		direction = (fromDirection != null) ? fromDirection : WindDirection.N;
+		strength = Math.min(Math.max(1, minStrength), maxStrength);
+	}
+
+	public WindDirection getDirection() {
+		return direction;
+	}
+
+	public int getStrength() {
+		return strength;
+	}
+
+	/**
+	 * Randomly vary the wind direction and strength.
+	 */
+	public void tick() {
+		if (random.nextInt(3) == 0) {
+			if (random.nextBoolean())
+				direction = direction.clockwise();
+			else
+				direction = direction.counterClockwise();
+			if (fromDirection != null)
+				direction = direction.constrain(fromDirection, toDirection);
+		}
+		if (random.nextInt(3) == 0) {
+			strength += random.nextInt(3) - 1;
+			if (strength < minStrength)
+				strength = minStrength;
+			else if (strength > maxStrength)
+				strength = maxStrength;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return direction + " " + strength + " (strength " + minStrength + " - " + maxStrength + ", direction " + ((fromDirection != null) ? (fromDirection + " - " + toDirection) : "random") + ")";
+	}
+
+	public final int minStrength, maxStrength;
+	public final WindDirection fromDirection, toDirection;
+
+	private final Random random;
+	private WindDirection direction;
+	private int strength;
+}